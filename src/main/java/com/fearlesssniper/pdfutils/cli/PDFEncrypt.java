@@ -23,27 +23,41 @@
  */
 package com.fearlesssniper.pdfutils.cli;
 
-import com.fearlesssniper.pdfutils.cli.common.PDFParameter;
+import com.fearlesssniper.pdfutils.cli.common.DocumentLoadOptions;
+import com.fearlesssniper.pdfutils.cli.common.DocumentSaveOptions;
+import com.fearlesssniper.pdfutils.cli.common.PDFInputFiles;
+import com.fearlesssniper.pdfutils.util.Futures;
 import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
 import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
 import picocli.CommandLine;
 import picocli.CommandLine.ArgGroup;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
 
 /**
- * Encrypts the PDF with a password
+ * Encrypts PDFs with a password, several at a time
  * @author fearlesssniper
  */
 @Command(
     name = "encrypt",
-    description = "Encrypts a PDF with a password or" +
-    " add access permissions to the document."
+    description = "Encrypts PDFs with a password or" +
+    " add access permissions to the documents."
 )
 public class PDFEncrypt implements Callable<Integer> {
     
@@ -138,47 +152,217 @@ public class PDFEncrypt implements Callable<Integer> {
     // Output file
     @Option(
         names = {"-o", "--output"},
-        description = {"The output PDF document."}
+        description = {
+            "The output PDF document.",
+            "Only allowed with a single input PDF."
+        }
     )
     private File outputFile;
 
-    @ArgGroup(exclusive = false, multiplicity = "1")
-    private PDFParameter pdfArgs;
+    @Option(
+        names = {"--output-dir"},
+        description = {
+            "The directory the encrypted PDFs are saved to,",
+            "each as <name>_encrypted.pdf. Created if missing.",
+            "Default: the working directory"
+        }
+    )
+    private File outputDir;
+
+    @Option(
+        names = {"-p", "--password"},
+        description = "The password for the PDF documents (if applicable)",
+        defaultValue = "",
+        arity = "0..1",
+        required = false, interactive = true
+    )
+    private String docPass;
+
+    @Option(
+        names = {"-t", "--threads"},
+        description = {
+            "The number of PDFs encrypted at the same time.",
+            "Default: ${DEFAULT-VALUE}"
+        },
+        defaultValue = "1"
+    )
+    private int threads;
+
+    @Mixin
+    private PDFInputFiles inputOptions;
+
+    @Mixin
+    private DocumentLoadOptions loadOptions;
+
+    @Mixin
+    private DocumentSaveOptions saveOptions;
 
     @Override
     public Integer call() throws Exception {
-        try (var pdfDoc = PDDocument.load(pdfArgs.docFile, pdfArgs.docPass)) {
-            var accessPermission = new AccessPermission();
-            if (this.permissionOptions != null) {
-                if (!this.permissionOptions.negate) {
-                    // Set everything to false if we only choose what to allow
-                    for (var options: PDFEncrypt.AccessPermissions.values()) {
-                        options.getSetter().accept(accessPermission, false);
+        if (this.threads < 1) {
+            System.err.println("The number of threads must be positive");
+            return 2;
+        }
+        List<File> inputFiles = this.inputOptions.getInputFiles();
+        if (inputFiles.isEmpty()) {
+            System.err.println("No PDFs to be encrypted");
+            return 2;
+        }
+        if (this.outputFile != null && inputFiles.size() > 1) {
+            System.err.println("--output cannot be used with more than one PDF");
+            return 2;
+        }
+        // Every output is checked before any PDF is encrypted, so a batch
+        // does not overwrite its own results or read a file being written
+        var allOutputs = new HashSet<Path>();
+        for (File inputFile : inputFiles) {
+            allOutputs.add(getPathKey(this.getOutputFile(inputFile)));
+        }
+        var batchFiles = new ArrayList<File>(inputFiles.size());
+        var outputFiles = new ArrayList<File>(inputFiles.size());
+        var usedOutputs = new HashSet<Path>();
+        for (File inputFile : inputFiles) {
+            File outFile = this.getOutputFile(inputFile);
+            if (getPathKey(inputFile).equals(getPathKey(outFile))) {
+                System.err.println(inputFile + " would be saved over itself");
+                return 2;
+            }
+            if (allOutputs.contains(getPathKey(inputFile))) {
+                // E.g. the result of an earlier run in the same directory,
+                // which is written again from its own input
+                System.err.println("Skipping " + inputFile
+                        + ": it is the output of another PDF");
+                continue;
+            }
+            if (!usedOutputs.add(getPathKey(outFile))) {
+                System.err.println("More than one PDF would be saved to " + outFile);
+                return 2;
+            }
+            batchFiles.add(inputFile);
+            outputFiles.add(outFile);
+        }
+        inputFiles = batchFiles;
+        if (this.outputDir != null) {
+            // Created once here instead of every PDF failing without it
+            try {
+                Files.createDirectories(this.outputDir.toPath());
+            } catch (IOException e) {
+                System.err.println("Cannot create output directory "
+                        + this.outputDir + ": " + e);
+                return 2;
+            }
+        }
+
+        // The policy is only read when a document is protected, so one is
+        // shared by all the documents
+        var encryptPolicy = this.getProtectionPolicy();
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        var pendingFiles = new ArrayDeque<Future<Void>>();
+        int failures = 0;
+        try {
+            int submitted = 0;
+            for (int i = 0; i < inputFiles.size(); i++) {
+                // Only a few PDFs more than the threads are queued, so the
+                // failures are reported in the order of the inputs as they
+                // happen
+                while (submitted < inputFiles.size()
+                        && pendingFiles.size() <= this.threads) {
+                    File inputFile = inputFiles.get(submitted);
+                    File outFile = outputFiles.get(submitted++);
+                    pendingFiles.add(executor.submit(() -> {
+                        this.encryptFile(inputFile, outFile, encryptPolicy);
+                        return null;
+                    }));
+                }
+                try {
+                    Futures.getResult(pendingFiles.remove());
+                } catch (InterruptedIOException e) {
+                    // Every PDF left would fail the same way, so the batch
+                    // stops instead
+                    for (var pendingFile : pendingFiles) {
+                        pendingFile.cancel(true);
                     }
+                    System.err.println("Interrupted after " + i + " of "
+                            + inputFiles.size() + " PDFs");
+                    return 1;
+                } catch (IOException | RuntimeException e) {
+                    // A PDF that cannot be encrypted does not stop the others
+                    System.err.println("Cannot encrypt " + inputFiles.get(i)
+                            + ": " + e.getMessage());
+                    failures++;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failures > 0) {
+            System.err.println(failures + " of " + inputFiles.size()
+                    + " PDFs could not be encrypted");
+            return 1;
+        }
+        return 0;
+    }
+
+    private File getOutputFile(File inputFile) {
+        if (this.outputFile != null) {
+            return this.outputFile;
+        }
+        String name = FilenameUtils.removeExtension(inputFile.getName())
+                + "_encrypted.pdf";
+        return this.outputDir != null ? new File(this.outputDir, name)
+                : new File(name);
+    }
+
+    /**
+     * Returns the path a file is compared by, so the same file given by
+     * different paths is found.
+     */
+    private static Path getPathKey(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    private StandardProtectionPolicy getProtectionPolicy() {
+        var accessPermission = new AccessPermission();
+        if (this.permissionOptions != null) {
+            if (!this.permissionOptions.negate) {
+                // Set everything to false if we only choose what to allow
+                for (var options: PDFEncrypt.AccessPermissions.values()) {
+                    options.getSetter().accept(accessPermission, false);
                 }
+            }
+            // Only an owner password may be given without permissions
+            if (this.permissionOptions.permissions != null) {
                 for (var permission: permissionOptions.permissions) {
                     permission.getSetter().accept(accessPermission, !this.permissionOptions.negate);
                 }
             }
-            // Owner password group not provided: set ownerpass empty
-            var ownerPass = 
-                    this.permissionOptions == null? "":
-                    this.permissionOptions.ownerPassword;
-            var encryptPolicy = new StandardProtectionPolicy(
-                    ownerPass,
-                    this.userPassword,
-                    accessPermission
-            );
-            encryptPolicy.setPreferAES(this.preferAES);
-            encryptPolicy.setEncryptionKeyLength(this.encryptionKeyLength);
-            
+        }
+        // Owner password group not provided: set ownerpass empty
+        var ownerPass =
+                this.permissionOptions == null? "":
+                this.permissionOptions.ownerPassword;
+        var encryptPolicy = new StandardProtectionPolicy(
+                ownerPass,
+                this.userPassword,
+                accessPermission
+        );
+        encryptPolicy.setPreferAES(this.preferAES);
+        encryptPolicy.setEncryptionKeyLength(this.encryptionKeyLength);
+        return encryptPolicy;
+    }
+
+    private void encryptFile(File inputFile, File outFile,
+            StandardProtectionPolicy encryptPolicy) throws IOException {
+        try (var pdfDoc = loadOptions.load(inputFile, this.docPass)) {
             pdfDoc.protect(encryptPolicy);
-            var outFile = new File(
-                FilenameUtils.removeExtension(this.pdfArgs.docFile.getName())
-                + "_encrypted.pdf");
-            pdfDoc.save(this.outputFile != null? outputFile: outFile);
+            try {
+                saveOptions.save(pdfDoc, outFile);
+            } catch (IOException | RuntimeException e) {
+                // A partly written PDF is not left behind
+                Files.deleteIfExists(outFile.toPath());
+                throw e;
+            }
         }
-        return 0;
     }
     
     public static void main(String[] args) {
@@ -23,6 +23,7 @@
  */
 package com.fearlesssniper.pdfutils.cli;
 
+import com.fearlesssniper.pdfutils.cli.common.DocumentLoadOptions;
 import com.fearlesssniper.pdfutils.cli.common.PDFParameter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
@@ -33,6 +34,7 @@ import org.apache.pdfbox.pdmodel.PDDocumentInformation;
 import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
 import picocli.CommandLine.ArgGroup;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
 
 /**
  * Command to retrieve metadata from a PDF document.
@@ -52,6 +54,9 @@ public class PDFInfo implements Callable<Integer> {
     @ArgGroup(exclusive = false, multiplicity = "1")
     private PDFParameter docArgs;
 
+    @Mixin
+    private DocumentLoadOptions loadOptions;
+
     /**
      * Format a Calendar value to a String with current locale.
      * 
@@ -69,7 +74,7 @@ public class PDFInfo implements Callable<Integer> {
 
     @Override
     public Integer call() {
-        try (PDDocument doc = PDDocument.load(docArgs.docFile,
+        try (PDDocument doc = loadOptions.load(docArgs.docFile,
                                               docArgs.docPass)) {
             PDDocumentInformation info = doc.getDocumentInformation();
             // Print the metadata of the PDF
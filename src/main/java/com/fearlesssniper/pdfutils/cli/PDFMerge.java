@@ -2,15 +2,28 @@ package com.fearlesssniper.pdfutils.cli;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import com.fearlesssniper.pdfutils.cli.common.DocumentLoadOptions;
+import com.fearlesssniper.pdfutils.cli.common.DocumentSaveOptions;
+import com.fearlesssniper.pdfutils.cli.common.PDFInputFiles;
+import com.fearlesssniper.pdfutils.util.Futures;
 import com.fearlesssniper.pdfutils.util.PDDocExtra;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
-import picocli.CommandLine.Parameters;
 
 @Command(name = "merge", mixinStandardHelpOptions = true,
          description = "Merges a number of PDFs into a new PDF.",
@@ -19,28 +32,162 @@ public class PDFMerge implements Callable<Integer> {
     @Option(names = {"-o", "--output"}, description = "The output PDF", required = true)
     private File outputFile;
 
-    @Parameters(paramLabel = "PDF", description = "PDF documents to be merged")
-    private File[] docFiles;
+    @Mixin
+    private PDFInputFiles inputOptions;
+
+    @Option(names = {"--chunk-size"},
+            description = {
+                "Merge the PDFs in chunks of this many into",
+                "temporary files, the chunks on parallel threads,",
+                "then merge those files the same way until one",
+                "file is left. 0 merges all PDFs directly.",
+                "Default: 0"
+            },
+            defaultValue = "0")
+    private int chunkSize;
+
+    @Option(names = {"-t", "--threads"},
+            description = {
+                "The number of threads parsing the input PDFs,",
+                "or merging the chunks with --chunk-size"
+            },
+            defaultValue = "1")
+    private int threads;
+
+    @Mixin
+    private DocumentLoadOptions loadOptions;
+
+    @Mixin
+    private DocumentSaveOptions saveOptions;
 
     @Override
     public Integer call() throws IOException {
-        // Note: The source document must not be closed when
-        // saving the result document.
-        try (PDDocExtra resultDoc = new PDDocExtra()) {
-            PDDocument[] docs = new PDDocument[this.docFiles.length];
-            // Load each document
-            for (int i = 0; i < this.docFiles.length; i++) {
-                docs[i] = PDDocument.load(this.docFiles[i]);
+        if (this.threads < 1) {
+            System.err.println("The number of threads must be positive");
+            return 2;
+        }
+        if (this.chunkSize == 1 || this.chunkSize < 0) {
+            System.err.println("A chunk must hold at least 2 PDFs");
+            return 2;
+        }
+        List<File> inputFiles = this.inputOptions.getInputFiles();
+        if (inputFiles.isEmpty()) {
+            System.err.println("No PDFs to be merged");
+            return 2;
+        }
+        if (this.chunkSize == 0) {
+            this.mergeFiles(inputFiles, this.outputFile, this.threads, false);
+        } else {
+            this.mergeChunks(inputFiles);
+        }
+        return 0;
+    }
+
+    /**
+     * Merges the files in chunks to temporary files, level by level, until
+     * one chunk is left, which is merged to the output file. The files of a
+     * level are deleted once the next level is merged.
+     */
+    private void mergeChunks(List<File> inputFiles) throws IOException {
+        List<File> levelFiles = inputFiles;
+        var tempFiles = new ArrayList<File>();
+        try {
+            while (levelFiles.size() > this.chunkSize) {
+                var chunkFiles = new ArrayList<File>();
+                ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+                try {
+                    var pendingChunks = new ArrayList<Future<Void>>();
+                    for (int start = 0; start < levelFiles.size(); start += this.chunkSize) {
+                        List<File> chunk = levelFiles.subList(start,
+                                Math.min(start + this.chunkSize, levelFiles.size()));
+                        File chunkFile = File.createTempFile("merge", ".pdf",
+                                this.loadOptions.tempDir);
+                        chunkFiles.add(chunkFile);
+                        // Each chunk parses its PDFs on its own thread only
+                        pendingChunks.add(executor.submit(() -> {
+                            this.mergeFiles(chunk, chunkFile, 1, true);
+                            return null;
+                        }));
+                    }
+                    for (var pendingChunk : pendingChunks) {
+                        Futures.getResult(pendingChunk);
+                    }
+                } finally {
+                    // A failed level stops the chunks still being merged
+                    // before their files are deleted
+                    executor.shutdownNow();
+                    try {
+                        executor.awaitTermination(1, TimeUnit.MINUTES);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    tempFiles.addAll(chunkFiles);
+                }
+                // The files of the previous level are merged into the chunks
+                deleteFiles(tempFiles.subList(0, tempFiles.size() - chunkFiles.size()));
+                levelFiles = chunkFiles;
             }
-            for (var doc: docs) {
-                resultDoc.appendDoc(doc);
+            this.mergeFiles(levelFiles, this.outputFile, this.threads, false);
+        } finally {
+            deleteFiles(tempFiles);
+        }
+    }
+
+    private static void deleteFiles(List<File> files) throws IOException {
+        for (File file : files) {
+            Files.deleteIfExists(file.toPath());
+        }
+        files.clear();
+    }
+
+    /**
+     * Merges the files into the output file, parsing them on the given
+     * number of threads. An intermediate file is always saved with the
+     * classic structure, which is quicker to write and read back.
+     */
+    private void mergeFiles(List<File> files, File output, int parseThreads,
+            boolean intermediate) throws IOException {
+        // The merged document is kept in a scratch file beyond 16 MB unless
+        // the memory is set, so memory does not grow with the inputs
+        var memUsageSetting = this.loadOptions.getMemoryUsageSetting(
+                MemoryUsageSetting.setupMixed(16L * 1024 * 1024));
+        ExecutorService executor = Executors.newFixedThreadPool(parseThreads);
+        // The inputs are parsed on the pool while the ones parsed before are
+        // appended, always in the order they are given
+        var pendingDocs = new ArrayDeque<Future<PDDocument>>();
+        try (PDDocExtra resultDoc = new PDDocExtra(memUsageSetting)) {
+            int submitted = 0;
+            for (int i = 0; i < files.size(); i++) {
+                // At most one document more than the threads is parsed
+                // ahead, so memory stays bounded
+                while (submitted < files.size()
+                        && pendingDocs.size() <= parseThreads) {
+                    File docFile = files.get(submitted++);
+                    pendingDocs.add(executor.submit(() -> this.loadOptions.load(docFile)));
+                }
+                // The pages are copied, so each source document is closed
+                // as soon as it is appended
+                try (PDDocument doc = Futures.getResult(pendingDocs.remove())) {
+                    resultDoc.appendDoc(doc);
+                }
             }
-            resultDoc.save(this.outputFile);
-            for (var doc: docs) {
-                doc.close();
+            if (intermediate) {
+                resultDoc.save(output);
+            } else {
+                resultDoc.balancePageTree();
+                this.saveOptions.save(resultDoc, output);
+            }
+        } finally {
+            executor.shutdown();
+            // Documents parsed ahead of a failure are closed once parsed
+            for (var pendingDoc : pendingDocs) {
+                try {
+                    Futures.getResult(pendingDoc).close();
+                } catch (IOException | RuntimeException e) {
+                    // The failure that stopped the merge is reported instead
+                }
             }
         }
-        return 0;
     }
 
 //    public static void main(String[] args) {
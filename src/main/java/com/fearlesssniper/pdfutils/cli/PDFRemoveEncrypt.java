@@ -23,12 +23,11 @@
  */
 package com.fearlesssniper.pdfutils.cli;
 
+import com.fearlesssniper.pdfutils.cli.common.DocumentLoadOptions;
+import com.fearlesssniper.pdfutils.cli.common.DocumentSaveOptions;
 import com.fearlesssniper.pdfutils.cli.common.PDFOutput;
 import com.fearlesssniper.pdfutils.cli.common.PDFParameter;
-import java.io.File;
 import java.util.concurrent.Callable;
-import org.apache.commons.io.FilenameUtils;
-import org.apache.pdfbox.pdmodel.PDDocument;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 
@@ -51,30 +50,17 @@ public class PDFRemoveEncrypt implements Callable<Integer> {
     @CommandLine.ArgGroup(exclusive = false, multiplicity = "1")
     private PDFParameter pdfParam;
 
-    // TODO: Take out this common method of PDFRotate, PDFRemoveEncrypt,
-    // PDFEncrypt, etc.
-    /**
-     * If the file in pdfArgs is null, then use the original file with the infix
-     *
-     * @param suffix The suffix after the basename
-     * @return The file to write to
-     */
-    private File getActualOutputFile(String suffix) {
-        if (outFileGroup.outputFile != null) {
-            return pdfParam.docFile;
-        }
-        else {
-            return new File(
-                    FilenameUtils.removeExtension(this.pdfParam.docFile.getName())
-                    + suffix);
-        }
-    }
+    @CommandLine.Mixin
+    private DocumentLoadOptions loadOptions;
+
+    @CommandLine.Mixin
+    private DocumentSaveOptions saveOptions;
 
     @Override
     public Integer call() throws Exception {
-        try (var doc = PDDocument.load(pdfParam.docFile, pdfParam.docPass)) {
+        try (var doc = loadOptions.load(pdfParam.docFile, pdfParam.docPass)) {
             doc.setAllSecurityToBeRemoved(true);
-            doc.save(getActualOutputFile("_encryption_removed.pdf"));
+            saveOptions.save(doc, outFileGroup.getOutputFile(pdfParam.docFile, "_encryption_removed.pdf"));
         }
         return 0;
     }
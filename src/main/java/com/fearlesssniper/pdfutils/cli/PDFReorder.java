@@ -23,15 +23,16 @@
  */
 package com.fearlesssniper.pdfutils.cli;
 
+import com.fearlesssniper.pdfutils.cli.common.DocumentLoadOptions;
+import com.fearlesssniper.pdfutils.cli.common.DocumentSaveOptions;
 import com.fearlesssniper.pdfutils.cli.common.PDFOutput;
 import com.fearlesssniper.pdfutils.cli.common.PDFParameter;
-import com.fearlesssniper.pdfutils.util.SequenceGenerator;
+import com.fearlesssniper.pdfutils.util.PDDocExtra;
+import com.fearlesssniper.pdfutils.util.PageSet;
+import com.fearlesssniper.pdfutils.util.PageSet.BadPageSetException;
 
-import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import picocli.CommandLine;
 import picocli.CommandLine.Option;
@@ -68,7 +69,10 @@ public class PDFReorder implements Callable<Integer> {
                 "Specify the order by the original postion of the pages,",
                 "but the expression is evaluated. Keywords `odd` and `even`",
                 "will expand to the odd numbered pages and even numbered pages",
-                "respectively. Using `reverse` before `odd` or `even` reverses the", "order of the sequence.",
+                "respectively. A range such as `3-7` expands to the pages in between.",
+                "A range takes a step and `last` or `rN` (Nth last) ends,",
+                "e.g. `1-last/2`. Using `reverse` before `odd`, `even` or a range",
+                "reverses the order of the sequence.",
                 "Use a space or comma, or both (i.e. \' \' or \',\')",
                 "to seperate the numbers. Quote the sequence with double quotes.",
                 "e.g. \"odd even\", \"odd reverse even\"", }, required = true)
@@ -90,56 +94,52 @@ public class PDFReorder implements Callable<Integer> {
     @CommandLine.ArgGroup(exclusive = false, multiplicity = "1")
     private PDFParameter pdfParam;
 
-    // TODO: Take out this common method of PDFRotate, PDFRemoveEncrypt,
-    // PDFEncrypt, etc.
+    @CommandLine.Mixin
+    private DocumentLoadOptions loadOptions;
+
+    @CommandLine.Mixin
+    private DocumentSaveOptions saveOptions;
+
     /**
-     * If the file in pdfArgs is null, then use the original file with the infix
-     *
-     * @param suffix The suffix after the basename
-     * @return The file to write to
+     * Converts page numbers counting from 1 to zero-based indexes.
      */
-    private File getActualOutputFile(String suffix) {
-        if (outFileGroup.outputFile != null) {
-            return pdfParam.docFile;
-        } else {
-            return new File(FilenameUtils.removeExtension(this.pdfParam.docFile.getName()) + suffix);
-        }
+    private static int[] toIndexes(List<Integer> pageNumbers) {
+        return pageNumbers.stream().mapToInt(n -> n - 1).toArray();
     }
 
     @Override
     public Integer call() throws Exception {
-        try (var doc = PDDocument.load(pdfParam.docFile, pdfParam.docPass)) {
-            try (var newDoc = new PDDocument()) {
-                var oldPageTree = doc.getPages();
-                var newPageTree = newDoc.getPages();
-                // If the user specified it
-                // An error is triggered when original position and
-                // position is both set; Also triggered when none is specified
-                // Done by picocli
-
-                // If using ordering string mode, put the parsed list into
-                // orderByOriginalPostion
-                // / orderByPosition
-                var sequenceGenerator = new SequenceGenerator(oldPageTree.getCount());
+        try (var doc = new PDDocExtra(loadOptions.load(pdfParam.docFile, pdfParam.docPass))) {
+            // An error is triggered when original position and
+            // position is both set; Also triggered when none is specified
+            // Done by picocli
+
+            // So ultimately despite having four options to provide the order
+            // the other three is converted into the 'order by positon' format
+            PDDocument newDoc;
+            try {
+                int numberOfPages = doc.getNumberOfPages();
+                int[] ordering;
                 if (orderingGroup.originalPostionString != null) {
-                    orderingGroup.orderByOriginalPosition = sequenceGenerator
-                            .getPageSequence(orderingGroup.originalPostionString);
+                    ordering = PDDocExtra.invertPermutation(PageSet.parse(
+                            orderingGroup.originalPostionString, numberOfPages)
+                            .toIndexes());
                 } else if (orderingGroup.positionString != null) {
-                    orderingGroup.orderByPosition = sequenceGenerator.getPageSequence(orderingGroup.positionString);
-                }
-
-                if (orderingGroup.orderByOriginalPosition != null) {
-                    orderingGroup.orderByPosition = new ArrayList<>();
-                    for (int i = 0; i < orderingGroup.orderByOriginalPosition.size(); i++) {
-                        orderingGroup.orderByPosition.add(orderingGroup.orderByOriginalPosition.indexOf(i + 1) + 1);
-                    }
+                    ordering = PageSet.parse(orderingGroup.positionString,
+                            numberOfPages).toIndexes();
+                } else if (orderingGroup.orderByOriginalPosition != null) {
+                    ordering = PDDocExtra.invertPermutation(
+                            toIndexes(orderingGroup.orderByOriginalPosition));
+                } else {
+                    ordering = toIndexes(orderingGroup.orderByPosition);
                 }
-                // So ultimately despite having four options to provide the order
-                // the other three is converted into the 'order by positon' format
-                for (var i : orderingGroup.orderByPosition) {
-                    newPageTree.add(oldPageTree.get(i - 1));
-                }
-                newDoc.save(getActualOutputFile("_reordered.pdf"));
+                newDoc = doc.getReorderedDoc(ordering);
+            } catch (BadPageSetException | IllegalArgumentException e) {
+                System.err.println("Invalid page order: " + e.getMessage());
+                return 2;
+            }
+            try (newDoc) {
+                saveOptions.save(newDoc, outFileGroup.getOutputFile(pdfParam.docFile, "_reordered.pdf"));
             }
         }
         return 0;
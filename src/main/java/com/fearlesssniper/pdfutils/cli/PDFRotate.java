@@ -23,15 +23,22 @@
  */
 package com.fearlesssniper.pdfutils.cli;
 
+import com.fearlesssniper.pdfutils.cli.common.DocumentLoadOptions;
+import com.fearlesssniper.pdfutils.cli.common.DocumentSaveOptions;
 import com.fearlesssniper.pdfutils.cli.common.PDFOutput;
 import com.fearlesssniper.pdfutils.cli.common.PDFParameter;
-import com.fearlesssniper.pdfutils.util.NumberGenerator;
+import com.fearlesssniper.pdfutils.util.IncrementalUpdate;
+import com.fearlesssniper.pdfutils.util.PageSet;
+import com.fearlesssniper.pdfutils.util.PageSet.BadPageSetException;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.Callable;
-import org.apache.commons.io.FilenameUtils;
+import org.apache.pdfbox.cos.COSDictionary;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
@@ -75,6 +82,16 @@ public class PDFRotate implements Callable<Integer> {
     )
     private List<Integer> indexes = new ArrayList<>(); // Default: Empty list
 
+    @Option(
+            names = {"--pages"},
+            description = {
+                "The pages to rotate, e.g. \"1 3-5 odd\",",
+                "\"r10-last/2\", \"all except 3\". See --pages of",
+                "to-image."
+            }
+    )
+    private String pagesString;
+
     @Option(
             names = {"-r", "--rotation"},
             description = "The rotation of pages in degrees.",
@@ -82,56 +99,80 @@ public class PDFRotate implements Callable<Integer> {
     )
     private int rotation;
 
+    @Option(
+            names = {"--incremental"},
+            description = {
+                "Append only the rotated pages to the PDF as an",
+                "incremental update instead of rewriting the whole",
+                "PDF. With the input PDF as the output, the update",
+                "is appended to it in place."
+            }
+    )
+    private boolean incremental;
+
     @Mixin
     private PDFOutput outputOption;
 
     @Mixin
     private PDFParameter pdfArgs;
 
-    /**
-     * If the file in pdfArgs is null, then use the original file with the infix
-     *
-     * @param suffix The suffix after the basename
-     * @return The file to write to
-     */
-    private File getActualOutputFile(String suffix) {
-        if (outputOption.outputFile != null) {
-            return pdfArgs.docFile;
-        } else {
-            return new File(
-                    FilenameUtils.removeExtension(this.pdfArgs.docFile.getName())
-                    + suffix);
-        }
-    }
+    @Mixin
+    private DocumentLoadOptions loadOptions;
+
+    @Mixin
+    private DocumentSaveOptions saveOptions;
 
     @Override
     public Integer call() throws Exception {
-        try (PDDocument doc = PDDocument.load(pdfArgs.docFile, pdfArgs.docPass)) {
-            // Make list of pages to rotate
-            var rotatePages = new ArrayList<Integer>(); // The index of the pages to be rotated
-            if (allPages || (oddNumbers && evenNumbers)) {
-                rotatePages.addAll(
-                        NumberGenerator.getAllNumbers(doc.getNumberOfPages()));
-            } else {
-                if (oddNumbers) {
-                    rotatePages.addAll(
-                            NumberGenerator.getOddNumbers(doc.getNumberOfPages()));
+        // The update is appended with a cross-reference table, not a stream
+        if (this.incremental && this.saveOptions.compressStructure) {
+            System.err.println(
+                    "--incremental cannot be used with --compress-structure");
+            return 2;
+        }
+        try (PDDocument doc = loadOptions.load(pdfArgs.docFile, pdfArgs.docPass)) {
+            // Make set of pages to rotate
+            int numberOfPages = doc.getNumberOfPages();
+            BitSet rotatePages; // The index of the pages to be rotated
+            try {
+                PageSet pageSet;
+                if (allPages || (oddNumbers && evenNumbers)) {
+                    pageSet = PageSet.all(numberOfPages);
+                } else {
+                    pageSet = PageSet.of(numberOfPages,
+                            indexes.stream().mapToInt(Integer::intValue).toArray());
+                    if (oddNumbers) {
+                        pageSet = pageSet.union(PageSet.parse("odd", numberOfPages));
+                    }
+                    if (evenNumbers) {
+                        pageSet = pageSet.union(PageSet.parse("even", numberOfPages));
+                    }
                 }
-                if (evenNumbers) {
-                    rotatePages.addAll(
-                            NumberGenerator.getEvenNumbers(doc.getNumberOfPages()));
+                if (pagesString != null) {
+                    pageSet = pageSet.union(PageSet.parse(pagesString, numberOfPages));
                 }
-                // Input validation
-//                for (int i: indexes) {
-//                    if (i >= doc.getNumberOfPages()) {
-//                    }
-//                }
-                rotatePages.addAll(indexes);
+                rotatePages = pageSet.toIndexSet();
+            } catch (BadPageSetException e) {
+                System.err.println("Invalid page selection: " + e.getMessage());
+                return 2;
             }
-            for (var n : rotatePages) {
-                doc.getPage(n - 1).setRotation(rotation);
+            // The pages are walked once instead of looked up one by one
+            var rotatedPages = new HashSet<COSDictionary>();
+            int index = 0;
+            for (PDPage page : doc.getPages()) {
+                if (rotatePages.get(index++)) {
+                    page.setRotation(rotation);
+                    rotatedPages.add(page.getCOSObject());
+                }
+            }
+            File outputFile = this.outputOption.getOutputFile(
+                    this.pdfArgs.docFile, "_rotated.pdf");
+            if (this.incremental) {
+                IncrementalUpdate.save(doc, this.pdfArgs.docFile, rotatedPages,
+                        outputFile);
+            } else {
+                saveOptions.save(doc, outputFile);
             }
-            doc.save(this.getActualOutputFile("_rotated.pdf"));
         }
         return 0;
     }
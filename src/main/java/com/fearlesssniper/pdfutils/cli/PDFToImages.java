@@ -23,14 +23,26 @@
  */
 package com.fearlesssniper.pdfutils.cli;
 
+import com.fearlesssniper.pdfutils.cli.common.DocumentLoadOptions;
 import com.fearlesssniper.pdfutils.cli.common.PDFParameter;
 import com.fearlesssniper.pdfutils.cli.common.ImageOptions;
 import com.fearlesssniper.pdfutils.cli.common.PDFImageResolution;
+import com.fearlesssniper.pdfutils.cli.common.PageSelection;
+import com.fearlesssniper.pdfutils.cli.common.RenderCacheOptions;
+import com.fearlesssniper.pdfutils.util.ImageEncoder;
+import com.fearlesssniper.pdfutils.util.OutputManifest;
 import com.fearlesssniper.pdfutils.util.PDDocExtra;
+import com.fearlesssniper.pdfutils.util.PageSet.BadPageSetException;
+import com.fearlesssniper.pdfutils.util.RenderCache;
+import java.awt.Dimension;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.concurrent.Callable;
-import javax.imageio.ImageIO;
 import org.apache.commons.io.FilenameUtils;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -57,10 +69,64 @@ public class PDFToImages implements Callable<Integer> {
     )
     private String filenamePrefix;
 
+    @Option(
+            names = {"--tile-size"},
+            description = {
+                "Render each page in tiles of this many pixels,",
+                "for pages too large to be rendered at once. The",
+                "page is still written as one image, rendered in",
+                "strips of this many rows; only PNG can be written",
+                "this way. Use --tile-set for JPEG."
+            }
+    )
+    private Integer tileSize;
+
+    @Option(
+            names = {"--tile-set"},
+            description = {
+                "With --tile-size, write every tile as its own",
+                "image, named PREFIX_i_ROW_COLUMN."
+            }
+    )
+    private boolean tileSet;
+
+    @Option(
+            names = {"--passthrough"},
+            description = {
+                "Copy the JPEG image of scanned pages straight to",
+                "the output file instead of rendering the page,",
+                "keeping the quality and resolution of the scan.",
+                "Other pages are rendered as usual. Only for JPEG",
+                "output."
+            }
+    )
+    private boolean passthrough;
+
+    @Option(
+            names = {"--resume"},
+            description = {
+                "Keep the images written by an earlier run on the",
+                "same document with the same settings and only",
+                "write the missing pages. The settings are recorded",
+                "in PREFIX.manifest, so a run can only be resumed",
+                "if it was started with --resume."
+            }
+    )
+    private boolean resume;
+
     // Allows users to specify what type of images to export
     @Mixin
     private ImageOptions imageOptions;
 
+    @Mixin
+    private PageSelection pageSelection;
+
+    @Mixin
+    private RenderCacheOptions renderCacheOptions;
+
+    @Mixin
+    private DocumentLoadOptions loadOptions;
+
     @ArgGroup(exclusive = false, multiplicity = "1")
     private PDFParameter pdfArgs;
 
@@ -73,19 +139,181 @@ public class PDFToImages implements Callable<Integer> {
         }
     }
 
+    /**
+     * Copies the JPEG image of the page of the given index to the output
+     * file if the page is a scanned page.
+     *
+     * @return Whether the page was a scanned page and has been written
+     */
+    private boolean copyScannedPage(PDDocExtra doc, int index, File outputFile)
+            throws IOException {
+        try (InputStream jpegStream = doc.getPageJPEGStream(index)) {
+            if (jpegStream == null) {
+                return false;
+            }
+            // Copied to a temporary file first like the encoded images
+            File partFile = Files.createTempFile(
+                    outputFile.getAbsoluteFile().getParentFile().toPath(),
+                    outputFile.getName(), ".part").toFile();
+            try {
+                Files.copy(jpegStream, partFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                Files.move(partFile.toPath(), outputFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(partFile.toPath());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the indexes of the pages that an earlier run with the same
+     * settings has not written, and records the settings of this run for
+     * the next one.
+     */
+    private int[] getMissingPages(PDDocExtra doc, int[] pageIndexes,
+            String fileBaseName) throws IOException {
+        var manifest = new OutputManifest(new File(fileBaseName + ".manifest"));
+        manifest.put("source", RenderCache.hashFile(this.pdfArgs.docFile));
+        manifest.put("dpi", this.imageResolution.dpi);
+        manifest.put("type", this.imageOptions.imgType);
+        manifest.put("color", this.imageOptions.colorMode);
+        manifest.put("quality", this.imageOptions.quality);
+        manifest.put("compression-level", this.imageOptions.compressionLevel);
+        manifest.put("progressive", this.imageOptions.progressive);
+        manifest.put("optimize-huffman", this.imageOptions.optimizeHuffman);
+        manifest.put("tile-size", this.tileSize);
+        manifest.put("tile-set", this.tileSet);
+        manifest.put("passthrough", this.passthrough);
+        if (!manifest.matchesSaved()) {
+            // Nothing written before can be kept
+            manifest.save();
+            return pageIndexes;
+        }
+        var missingPages = new ArrayList<Integer>();
+        for (int i : pageIndexes) {
+            if (!this.isPageWritten(doc, i, fileBaseName)) {
+                missingPages.add(i);
+            }
+        }
+        return missingPages.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Returns whether all the images of the page of the given index exist.
+     * Images are written atomically, so an existing image is complete.
+     */
+    private boolean isPageWritten(PDDocExtra doc, int index, String fileBaseName) {
+        String fileExtension = this.imageOptions.imgType.getFileExtension();
+        if (new File(fileBaseName + "_" + index + fileExtension).exists()) {
+            return true;
+        }
+        if (this.tileSize == null || !this.tileSet) {
+            return false;
+        }
+        // The tiles of a page are written in order, so the page is complete
+        // if its last tile exists
+        Dimension size = doc.getPageImageSize(index, this.imageResolution.dpi);
+        int lastRow = (size.height - 1) / this.tileSize;
+        int lastColumn = (size.width - 1) / this.tileSize;
+        return new File(fileBaseName + "_" + index + "_" + lastRow + "_"
+                + lastColumn + fileExtension).exists();
+    }
+
+    /**
+     * Writes the page of the given index tile by tile, so the whole page is
+     * never held in memory.
+     */
+    private void writeTiledPage(PDDocExtra doc, int index, String fileBaseName,
+            ImageEncoder encoder) throws IOException {
+        String fileExtension = this.imageOptions.imgType.getFileExtension();
+        if (this.tileSet) {
+            // PREFIX_i_ROW_COLUMN.(jpg/png), e.g. pdf_0_1_2.jpg
+            doc.renderPageTiles(index, this.imageResolution.dpi, this.tileSize,
+                    (row, column, tile) -> encoder.write(tile, new File(
+                            fileBaseName + "_" + index + "_" + row + "_" + column
+                            + fileExtension)));
+        } else {
+            try {
+                encoder.write(
+                        doc.getTiledPageImage(index, this.imageResolution.dpi, this.tileSize),
+                        new File(fileBaseName + "_" + index + fileExtension));
+            } catch (UncheckedIOException e) {
+                // Thrown by the tiled image while being encoded
+                throw e.getCause();
+            }
+        }
+    }
+
     @Override
     public Integer call() throws IOException {
+        String invalidSettings = this.imageOptions.getInvalidSettings();
+        if (invalidSettings != null) {
+            System.err.println("Invalid image settings: " + invalidSettings);
+            return 2;
+        }
         try (PDDocExtra doc = new PDDocExtra(
-                PDDocExtra.load(this.pdfArgs.docFile, this.pdfArgs.docPass))) {
-            var pagesImage = doc.getPagesImage(this.imageResolution.dpi);
+                this.loadOptions.load(this.pdfArgs.docFile, this.pdfArgs.docPass),
+                () -> this.loadOptions.load(this.pdfArgs.docFile, this.pdfArgs.docPass))) {
+            doc.setImageType(this.imageOptions.colorMode.getRenderImageType());
+            this.renderCacheOptions.applyTo(doc, this.pdfArgs.docFile);
+            var encoder = this.imageOptions.getEncoder();
+            // Each page is written to its own file, so it is written once
+            int[] pageIndexes = this.pageSelection.getDistinctPageIndexes(
+                    doc.getNumberOfPages());
             String fileBaseName = this.getFileBaseName();
-            for (int i = 0; i < pagesImage.length; i++) {
-                // PREFIX_i.(jpg/png), e.g. pdf_0.jpg
-                var outputFile = new File(
-                        fileBaseName + "_" + i + this.imageOptions.imgType.getFileExtension());
-                ImageIO.write(
-                        pagesImage[i], this.imageOptions.imgType.toString(), outputFile);
+            String fileExtension = this.imageOptions.imgType.getFileExtension();
+            if (this.passthrough && this.imageOptions.imgType != ImageOptions.ImageType.JPEG) {
+                System.err.println("Scanned pages can only be copied to JPEG images");
+                return 2;
+            }
+            if (this.tileSize != null && this.tileSize <= 0) {
+                System.err.println("The tile size must be positive");
+                return 2;
+            }
+            if (this.resume) {
+                pageIndexes = this.getMissingPages(doc, pageIndexes, fileBaseName);
             }
+            if (this.tileSize != null) {
+                if (!this.tileSet && this.imageOptions.imgType != ImageOptions.ImageType.PNG) {
+                    // The JPEG writer reads the whole image at once
+                    System.err.println(
+                            "Tiled pages can only be written as one image in PNG;"
+                            + " use --tile-set to write JPEG tiles");
+                    return 2;
+                }
+                doc.forEachPage(pageIndexes, this.imageResolution.threads, (pageDoc, i) -> {
+                    if (!this.passthrough || !this.copyScannedPage(pageDoc, i,
+                            new File(fileBaseName + "_" + i + fileExtension))) {
+                        this.writeTiledPage(pageDoc, i, fileBaseName, encoder);
+                    }
+                });
+                return 0;
+            }
+            if (this.passthrough) {
+                // Every page is checked with the document handle of its thread
+                doc.forEachPage(pageIndexes, this.imageResolution.threads, (pageDoc, i) -> {
+                    var outputFile = new File(fileBaseName + "_" + i + fileExtension);
+                    if (!this.copyScannedPage(pageDoc, i, outputFile)) {
+                        encoder.write(pageDoc.getPageImage(i, this.imageResolution.dpi),
+                                outputFile);
+                    }
+                });
+                return 0;
+            }
+            // Each page is written as soon as it is rendered, so only the
+            // pages being rendered are held in memory
+            doc.renderPages(pageIndexes, this.imageResolution.dpi, this.imageResolution.threads,
+                    (i, pageImage) -> {
+                // PREFIX_i.(jpg/png), e.g. pdf_0.jpg
+                var outputFile = new File(fileBaseName + "_" + i + fileExtension);
+                encoder.write(pageImage, outputFile);
+            });
+        } catch (BadPageSetException e) {
+            System.err.println("Invalid page selection: " + e.getMessage());
+            return 2;
         }
         return 0;
     }
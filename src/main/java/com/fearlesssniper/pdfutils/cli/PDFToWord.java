@@ -23,28 +23,26 @@
  */
 package com.fearlesssniper.pdfutils.cli;
 
+import com.fearlesssniper.pdfutils.cli.common.DocumentLoadOptions;
 import com.fearlesssniper.pdfutils.cli.common.PDFParameter;
 import com.fearlesssniper.pdfutils.cli.common.ImageOptions;
 import com.fearlesssniper.pdfutils.cli.common.PDFImageResolution;
+import com.fearlesssniper.pdfutils.cli.common.PageSelection;
+import com.fearlesssniper.pdfutils.cli.common.RenderCacheOptions;
 import com.fearlesssniper.pdfutils.util.PDDocExtra;
 import com.fearlesssniper.pdfutils.util.PDPageExtra;
-import com.fearlesssniper.pdfutils.util.XWPFDocumentExtra;
-import com.fearlesssniper.pdfutils.util.XWPFParagraphExtra;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
+import com.fearlesssniper.pdfutils.util.PageSet.BadPageSetException;
+import com.fearlesssniper.pdfutils.util.PageTextExtractor;
+import com.fearlesssniper.pdfutils.util.StreamingDocxWriter;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.concurrent.Callable;
-import javax.imageio.ImageIO;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
-import org.apache.poi.util.Units;
-import org.apache.poi.xwpf.usermodel.Document;
-import org.apache.xmlbeans.XmlException;
 import picocli.CommandLine;
 import picocli.CommandLine.ArgGroup;
 import picocli.CommandLine.Command;
@@ -102,99 +100,126 @@ public class PDFToWord implements Callable<Integer> {
     )
     private PageSizes specifiedSize;
 
+    private enum ConversionMode {
+        IMAGE, TEXT
+    }
+    @Option(
+            names = {"--mode"},
+            description = {
+                "How the pages are converted. IMAGE renders each",
+                "page into a picture. TEXT extracts the text of",
+                "each page into paragraphs at the positions of its",
+                "lines, which is much faster and smaller and can be",
+                "searched and edited, but leaves out images and",
+                "drawings; for born-digital PDFs.",
+                "Valid values: ${COMPLETION-CANDIDATES}"
+            },
+            defaultValue = "IMAGE"
+    )
+    private ConversionMode mode;
+
     // Allows users to specify what type of images to be embedded
     // in the Word document
     @Mixin
     private ImageOptions imageOptions;
+
+    @Mixin
+    private PageSelection pageSelection;
+
+    @Mixin
+    private RenderCacheOptions renderCacheOptions;
+
+    @Mixin
+    private DocumentLoadOptions loadOptions;
     
     @ArgGroup(exclusive = false, multiplicity = "1")
     private PDFParameter pdfArgs;
 
+    /**
+     * Returns the size of the Word page of the PDF page of the given index
+     * in points.
+     */
+    private PDPageExtra.Dimensions getWordPageDimensions(PDDocExtra pdfDoc,
+            int index) {
+        if (this.specifiedSize != null) {
+            // Use specifed size instead of PDF page size
+            return PDPageExtra.getPageDimensions(
+                    this.specifiedSize.getRectangleSize());
+        }
+        return PDPageExtra.getPageDimensions(pdfDoc.getPage(index));
+    }
+
+    private File getOutputFile() {
+        if (this.outputWord == null) {
+            // Use original file name
+            return new File(FilenameUtils.removeExtension(
+                    this.pdfArgs.docFile.getName()) + ".docx");
+        }
+        return this.outputWord;
+    }
+
     @Override
-    public Integer call() throws IOException, InvalidFormatException, XmlException {
+    public Integer call() throws IOException {
+        String invalidSettings = this.imageOptions.getInvalidSettings();
+        if (invalidSettings != null) {
+            System.err.println("Invalid image settings: " + invalidSettings);
+            return 2;
+        }
         // Draw images of PDF into images
         // TODO: Did not handle when user gives invalid password
         try (PDDocExtra pdfDoc = new PDDocExtra(
-                PDDocument.load(pdfArgs.docFile, pdfArgs.docPass))) {
-            BufferedImage[] pagesImages = pdfDoc.getPagesImage(
-                    this.imageResolution.dpi);
-            try (XWPFDocumentExtra wordDoc = new XWPFDocumentExtra()) {
-                for (int i = 0; i < pdfDoc.getNumberOfPages(); i++) {
-                    // Dimensions in points
-                    PDPageExtra.Dimensions wordPageDimensions;
-                    if (this.specifiedSize != null) {
-                        // Use specifed size instead of PDF page size
-                        wordPageDimensions = PDPageExtra.getPageDimensions(
-                                this.specifiedSize.getRectangleSize());
-                    } else {
-                        wordPageDimensions = PDPageExtra.getPageDimensions(
-                                pdfDoc.getPage(i));
-                    }
-
-                    // Create a paragraph for each page
-                    var paragraph = wordDoc.createParagraph();
-
-                    var run = paragraph.createRun();
-                    // Process the pictures
-                    var byteStream = new ByteArrayOutputStream();
-                    ImageIO.write(pagesImages[i], this.imageOptions.imgType.getFormatName(), byteStream);
-                    var byteArrayInputStream
-                            = new ByteArrayInputStream(byteStream.toByteArray());
-                    int imageType = Document.PICTURE_TYPE_JPEG; // Image type as specified by XWPF documents
-                    if (this.imageOptions.imgType == ImageOptions.ImageType.JPEG) {
-                        imageType = Document.PICTURE_TYPE_JPEG;
-                    } else if (this.imageOptions.imgType == ImageOptions.ImageType.PNG) {
-                        imageType = Document.PICTURE_TYPE_PNG;
-                    }
-                    run.addPicture(byteArrayInputStream, imageType,
-                            "page" + i,
-                            Units.toEMU(wordPageDimensions.width),
-                            Units.toEMU(wordPageDimensions.height));
-                    // Inserting image in anchor mode
-//                    XWPFRunExtra myRunExtra = new XWPFRunExtra(run);
-//                    myRunExtra.addAnchoredPicture2(
-//                            byteArrayInputStream,
-//                            Document.PICTURE_TYPE_PNG,
-//                            "page" + i,
-//                            Units.toEMU(pageDimensions.width),
-//                            Units.toEMU(pageDimensions.height));
-                    // Specify the section properties (page size, etc.)
-                    // after the actual content
-                    // Create a paragraph for the section properties
-                    // including page size, margin, etc.
-                    if (i == pdfDoc.getNumberOfPages() - 1) {
-                        // If it is the last page, set the page size in a
-                        // sectPr under w:body instead of creating a new 
-                        // paragraph
-                        // Multiply by 20 to convert from points to twips
-                        wordDoc.setPagesSize(
-                                wordPageDimensions.width * 20,
-                                wordPageDimensions.height * 20
-                        );
-                        wordDoc.setDocumentMargin(0, 0, 0, 0);
-                    } else {
-                        var pagePropertiesParagraph = wordDoc.createParagraph();
-                        var myParagraph = new XWPFParagraphExtra(
-                                pagePropertiesParagraph);
-                        // Convert from points to twips; 1 point = 20 twips
-                        myParagraph.setPageSize(
-                                wordPageDimensions.width * 20,
-                                wordPageDimensions.height * 20
-                        );
-                        myParagraph.setMargin(0, 0, 0, 0);
-                    }
-                }
-                FileOutputStream outFileStream;
-                if (this.outputWord == null) {
-                    // Use original file name
-                    outFileStream = new FileOutputStream(
-                            FilenameUtils.removeExtension(
-                                    this.pdfArgs.docFile.getName()) + ".docx");
-                } else {
-                    outFileStream = new FileOutputStream(this.outputWord);
+                loadOptions.load(pdfArgs.docFile, pdfArgs.docPass),
+                () -> loadOptions.load(pdfArgs.docFile, pdfArgs.docPass))) {
+            pdfDoc.setImageType(this.imageOptions.colorMode.getRenderImageType());
+            this.renderCacheOptions.applyTo(pdfDoc, pdfArgs.docFile);
+            int[] pageIndexes = this.pageSelection.getPageIndexes(
+                    pdfDoc.getNumberOfPages());
+            var encoder = this.imageOptions.getEncoder();
+            // The pictures are written into the file page by page instead of
+            // being held in an XWPFDocument until the end
+            File outputFile = this.getOutputFile();
+            try (var wordDoc = new StreamingDocxWriter(new BufferedOutputStream(
+                    new FileOutputStream(outputFile)))) {
+                if (this.mode == ConversionMode.TEXT) {
+                    // The text of the pages is extracted on the worker
+                    // threads, each page with its own extractor
+                    pdfDoc.processPagesInOrder(pageIndexes,
+                            this.imageResolution.threads,
+                            (pageDoc, index) -> new PageTextExtractor().getLines(pageDoc, index),
+                            (index, lines) -> {
+                        var wordPageDimensions = this.getWordPageDimensions(pdfDoc, index);
+                        wordDoc.addTextPage(wordPageDimensions.width,
+                                wordPageDimensions.height, lines);
+                    });
+                    wordDoc.finish();
+                    return 0;
                 }
-                wordDoc.write(outFileStream);
+                // Pages are rendered and encoded on the worker threads while
+                // this thread adds the encoded pages in order
+                pdfDoc.renderPagesInOrder(pageIndexes, this.imageResolution.dpi,
+                        this.imageResolution.threads, (index, pageImage) -> {
+                    var encodedImage = new ByteArrayOutputStream();
+                    encoder.write(pageImage, encodedImage);
+                    // Hashed here so identical pages are found in parallel
+                    return new StreamingDocxWriter.Picture(encodedImage);
+                }, (index, picture) -> {
+                    var wordPageDimensions = this.getWordPageDimensions(pdfDoc, index);
+                    // Identical pages, e.g. blank pages, share one picture
+                    wordDoc.addPicturePage(
+                            wordPageDimensions.width, wordPageDimensions.height,
+                            this.imageOptions.imgType.getFormatName(),
+                            "page" + index, picture);
+                });
+                wordDoc.finish();
+            } catch (IOException | RuntimeException e) {
+                // A document missing the pages after the failure is not
+                // left behind
+                Files.deleteIfExists(outputFile.toPath());
+                throw e;
             }
+        } catch (BadPageSetException e) {
+            System.err.println("Invalid page selection: " + e.getMessage());
+            return 2;
         }
         return 0;
     }
@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.cli.common;
+
+import com.fearlesssniper.pdfutils.util.MappedFileRandomAccessRead;
+import java.io.File;
+import java.io.IOException;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import picocli.CommandLine.Option;
+
+/**
+ * The common options for how PDF documents are loaded, so large documents
+ * can be processed with a small heap. Every command loads its documents
+ * through here.
+ * @author fearlesssniper
+ */
+public class DocumentLoadOptions {
+    @Option(
+        names = {"--max-memory"},
+        description = {
+            "The memory in MB each open document may use for",
+            "its buffers. Buffers beyond it are kept in",
+            "temporary files.",
+            "Default: no limit, all buffers are kept in memory"
+        }
+    )
+    public Long maxMemoryMB;
+
+    @Option(
+        names = {"--temp-files"},
+        description = {
+            "Keep all document buffers in temporary files",
+            "instead of memory. Overrides --max-memory."
+        }
+    )
+    public boolean tempFilesOnly;
+
+    @Option(
+        names = {"--temp-dir"},
+        description = {
+            "The directory for the temporary files.",
+            "Default: the system temporary directory"
+        }
+    )
+    public File tempDir;
+
+    @Option(
+        names = {"--mmap"},
+        description = {
+            "Read the input documents through memory mapping",
+            "instead of a buffered file stream."
+        }
+    )
+    public boolean memoryMapped;
+
+    /**
+     * Returns the memory setting for the buffers of a document.
+     *
+     * @return The memory setting of the chosen options
+     */
+    public MemoryUsageSetting getMemoryUsageSetting() {
+        MemoryUsageSetting setting;
+        if (this.tempFilesOnly) {
+            setting = MemoryUsageSetting.setupTempFileOnly();
+        } else if (this.maxMemoryMB != null) {
+            setting = MemoryUsageSetting.setupMixed(this.maxMemoryMB * 1024 * 1024);
+        } else {
+            setting = MemoryUsageSetting.setupMainMemoryOnly();
+        }
+        return setting.setTempDir(this.tempDir);
+    }
+
+    /**
+     * Returns the memory setting for the buffers of a document, or the
+     * given setting if no memory option is given.
+     *
+     * @param defaultSetting The setting used without memory options
+     * @return The memory setting of the chosen options
+     */
+    public MemoryUsageSetting getMemoryUsageSetting(
+            MemoryUsageSetting defaultSetting) {
+        if (!this.tempFilesOnly && this.maxMemoryMB == null) {
+            return defaultSetting.setTempDir(this.tempDir);
+        }
+        return this.getMemoryUsageSetting();
+    }
+
+    /**
+     * Loads a PDF document with the chosen memory setting.
+     *
+     * @param file The PDF document
+     * @param password The password of the document, empty if none
+     * @return The loaded document
+     * @throws IOException The document cannot be read or parsed
+     */
+    public PDDocument load(File file, String password) throws IOException {
+        if (!this.memoryMapped) {
+            return PDDocument.load(file, password, this.getMemoryUsageSetting());
+        }
+        // What PDDocument.load does, with a mapped file as the source
+        var source = new MappedFileRandomAccessRead(file);
+        ScratchFile scratchFile = null;
+        try {
+            scratchFile = new ScratchFile(this.getMemoryUsageSetting());
+            var parser = new PDFParser(source, password, scratchFile);
+            parser.parse();
+            // The document closes the source and the scratch file
+            return parser.getPDDocument();
+        } catch (IOException e) {
+            IOUtils.closeQuietly(scratchFile);
+            IOUtils.closeQuietly(source);
+            throw e;
+        }
+    }
+
+    /**
+     * Loads a PDF document that is not encrypted.
+     *
+     * @param file The PDF document
+     * @return The loaded document
+     * @throws IOException The document cannot be read or parsed
+     */
+    public PDDocument load(File file) throws IOException {
+        return this.load(file, "");
+    }
+}
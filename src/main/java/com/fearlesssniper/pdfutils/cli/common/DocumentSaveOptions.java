@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.cli.common;
+
+import com.fearlesssniper.pdfutils.util.ObjectStreamWriter;
+import java.io.File;
+import java.io.IOException;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import picocli.CommandLine.Option;
+
+/**
+ * The common options for how PDF documents are saved. Every command that
+ * writes a PDF saves it through here.
+ * @author fearlesssniper
+ */
+public class DocumentSaveOptions {
+    @Option(
+        names = {"--compress-structure"},
+        description = {
+            "Pack the objects of the output PDF into compressed",
+            "object streams with a cross-reference stream",
+            "(PDF 1.5), which makes it smaller. Readers older",
+            "than PDF 1.5 cannot open it."
+        }
+    )
+    public boolean compressStructure;
+
+    /**
+     * Saves a PDF document with the chosen structure.
+     *
+     * @param doc The document
+     * @param file The file to write to
+     * @throws IOException Error writing the document
+     */
+    public void save(PDDocument doc, File file) throws IOException {
+        if (this.compressStructure) {
+            ObjectStreamWriter.save(doc, file);
+        } else {
+            doc.save(file);
+        }
+    }
+}
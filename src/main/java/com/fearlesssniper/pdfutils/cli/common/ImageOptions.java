@@ -23,10 +23,12 @@
  */
 package com.fearlesssniper.pdfutils.cli.common;
 
+import com.fearlesssniper.pdfutils.util.ImageEncoder;
 import picocli.CommandLine.Option;
 
 /**
- * Two types of images for users to choose from
+ * Two types of images for users to choose from, and the settings to encode
+ * them with
  */
 public class ImageOptions {
     public enum ImageType {
@@ -58,4 +60,129 @@ public class ImageOptions {
             defaultValue = "JPEG"
     )
     public ImageType imgType;
+
+    /**
+     * The colors the pages are rendered in
+     */
+    public enum ColorMode {
+        RGB(org.apache.pdfbox.rendering.ImageType.RGB),
+        GRAY(org.apache.pdfbox.rendering.ImageType.GRAY),
+        BINARY(org.apache.pdfbox.rendering.ImageType.BINARY);
+        private final org.apache.pdfbox.rendering.ImageType renderImageType;
+
+        private ColorMode(org.apache.pdfbox.rendering.ImageType renderImageType) {
+            this.renderImageType = renderImageType;
+        }
+
+        public org.apache.pdfbox.rendering.ImageType getRenderImageType() {
+            return this.renderImageType;
+        }
+    }
+
+    @Option(
+            names = {"--color"},
+            description = {
+                "The colors the pages are rendered in. GRAY and",
+                "BINARY (black and white) images take less memory",
+                "and encode faster than RGB images.",
+                "Valid values: ${COMPLETION-CANDIDATES}",
+                "Default: ${DEFAULT-VALUE}"
+            },
+            defaultValue = "RGB"
+    )
+    public ColorMode colorMode;
+
+    @Option(
+            names = {"--quality"},
+            description = {
+                "The quality of JPEG images, from 1 (smallest)",
+                "to 100 (best). Only for JPEG images.",
+                "Default: the default of the JPEG writer (75)"
+            }
+    )
+    public Integer quality;
+
+    @Option(
+            names = {"--compression-level"},
+            description = {
+                "The deflate level of PNG images, from 0 (fastest)",
+                "to 9 (smallest). Only for PNG images.",
+                "Default: the default of the PNG writer (4)"
+            }
+    )
+    public Integer compressionLevel;
+
+    @Option(
+            names = {"--progressive"},
+            description = "Write progressive JPEG images."
+    )
+    public boolean progressive;
+
+    @Option(
+            names = {"--optimize-huffman"},
+            description = {
+                "Compute optimized Huffman tables for JPEG images,",
+                "giving smaller files at the cost of encoding time."
+            }
+    )
+    public boolean optimizeHuffman;
+
+    private ImageEncoder encoder;
+
+    /**
+     * Returns why the encoding settings cannot be used, or null if they can
+     * be. The settings are checked before any page is rendered.
+     *
+     * @return The problem with the settings, or null
+     */
+    public String getInvalidSettings() {
+        if (this.quality != null) {
+            if (this.imgType != ImageType.JPEG) {
+                return "--quality is only for JPEG images";
+            }
+            if (this.quality < 1 || this.quality > 100) {
+                return "--quality must be between 1 and 100";
+            }
+        }
+        if (this.compressionLevel != null) {
+            if (this.imgType != ImageType.PNG) {
+                return "--compression-level is only for PNG images";
+            }
+            if (this.compressionLevel < 0 || this.compressionLevel > 9) {
+                return "--compression-level must be between 0 and 9";
+            }
+        }
+        if (this.progressive && this.imgType != ImageType.JPEG) {
+            return "--progressive is only for JPEG images";
+        }
+        if (this.optimizeHuffman && this.imgType != ImageType.JPEG) {
+            return "--optimize-huffman is only for JPEG images";
+        }
+        return null;
+    }
+
+    /**
+     * Returns the encoder for the chosen image type and settings. The same
+     * encoder is returned on every call, so its writers are reused. The
+     * settings must have been checked with getInvalidSettings.
+     *
+     * @return The image encoder
+     */
+    public synchronized ImageEncoder getEncoder() {
+        if (this.encoder == null) {
+            var newEncoder = new ImageEncoder(this.imgType.getFormatName());
+            if (this.quality != null && this.imgType == ImageType.JPEG) {
+                newEncoder.setQuality(this.quality);
+            }
+            if (this.compressionLevel != null && this.imgType == ImageType.PNG) {
+                newEncoder.setCompressionLevel(this.compressionLevel);
+            }
+            if (this.imgType == ImageType.JPEG) {
+                newEncoder.setProgressive(this.progressive);
+                newEncoder.setOptimizeHuffman(this.optimizeHuffman);
+            }
+            this.encoder = newEncoder;
+        }
+        return this.encoder;
+    }
 }
@@ -34,4 +34,9 @@ public class PDFImageResolution {
             description = "The resolution of the drawn pages in dpi",
             defaultValue = "200")
     public float dpi;
+
+    @Option(names = {"-t", "--threads"},
+            description = "The number of threads rendering the pages",
+            defaultValue = "1")
+    public int threads;
 }
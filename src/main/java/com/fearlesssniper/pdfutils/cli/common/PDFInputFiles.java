@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.cli.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * The common parameters and options for commands working on many PDF
+ * documents, given directly, in a list file or in a directory.
+ * @author fearlesssniper
+ */
+public class PDFInputFiles {
+    @Parameters(paramLabel = "PDF", arity = "0..*",
+            description = "The PDF documents")
+    public File[] docFiles;
+
+    @Option(names = {"-l", "--list"},
+            description = {
+                "A file listing PDFs after the given ones, one per",
+                "line. Blank lines and lines starting with # are",
+                "skipped. Relative paths are relative to the list",
+                "file."
+            })
+    public File listFile;
+
+    @Option(names = {"-d", "--dir"},
+            description = {
+                "A directory whose PDFs come after the listed ones"
+            })
+    public File inputDir;
+
+    /**
+     * The orders the PDFs of a directory are taken in
+     */
+    public enum SortOrder {
+        NAME(Comparator.comparing(File::getName)),
+        MODIFIED(Comparator.comparingLong(File::lastModified)),
+        SIZE(Comparator.comparingLong(File::length));
+        private final Comparator<File> comparator;
+
+        private SortOrder(Comparator<File> comparator) {
+            // Files equal in the order are taken by name
+            this.comparator = comparator.thenComparing(File::getName);
+        }
+
+        public Comparator<File> getComparator() {
+            return this.comparator;
+        }
+    }
+    @Option(names = {"--sort"},
+            description = {
+                "The order the PDFs of the directory are taken in.",
+                "Valid values: ${COMPLETION-CANDIDATES}"
+            },
+            defaultValue = "NAME")
+    public SortOrder sortOrder;
+
+    /**
+     * Returns the PDFs given, the ones in the list file and the ones in the
+     * directory, in that order.
+     *
+     * @return The input PDFs
+     * @throws IOException The list file or the directory cannot be read
+     */
+    public List<File> getInputFiles() throws IOException {
+        var inputFiles = new ArrayList<File>();
+        if (this.docFiles != null) {
+            inputFiles.addAll(Arrays.asList(this.docFiles));
+        }
+        if (this.listFile != null) {
+            File listDir = this.listFile.getAbsoluteFile().getParentFile();
+            for (String line : Files.readAllLines(this.listFile.toPath(),
+                    StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                File file = new File(line);
+                inputFiles.add(file.isAbsolute() ? file : new File(listDir, line));
+            }
+        }
+        if (this.inputDir != null) {
+            File[] dirFiles = this.inputDir.listFiles((dir, name)
+                    -> name.toLowerCase().endsWith(".pdf"));
+            if (dirFiles == null) {
+                throw new IOException("Cannot list directory " + this.inputDir);
+            }
+            Arrays.sort(dirFiles, this.sortOrder.getComparator());
+            inputFiles.addAll(Arrays.asList(dirFiles));
+        }
+        return inputFiles;
+    }
+}
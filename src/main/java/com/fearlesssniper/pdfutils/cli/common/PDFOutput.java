@@ -24,6 +24,7 @@
 package com.fearlesssniper.pdfutils.cli.common;
 
 import java.io.File;
+import org.apache.commons.io.FilenameUtils;
 import picocli.CommandLine;
 
 /**
@@ -36,4 +37,19 @@ public class PDFOutput {
         description = {"The output PDF document."}
     )
     public File outputFile;
+
+    /**
+     * Returns the output file if it is given, or else a file named after
+     * the input document with the suffix, in the working directory.
+     *
+     * @param docFile The input PDF document
+     * @param suffix The suffix after the basename of the input document
+     * @return The file to write to
+     */
+    public File getOutputFile(File docFile, String suffix) {
+        if (this.outputFile != null) {
+            return this.outputFile;
+        }
+        return new File(FilenameUtils.removeExtension(docFile.getName()) + suffix);
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.cli.common;
+
+import com.fearlesssniper.pdfutils.util.PageSet;
+import com.fearlesssniper.pdfutils.util.PageSet.BadPageSetException;
+import java.util.Arrays;
+import java.util.BitSet;
+import picocli.CommandLine.Option;
+
+/**
+ * The common option for selecting the pages a command works on
+ * @author fearlesssniper
+ */
+public class PageSelection {
+    @Option(
+        names = {"--pages"},
+        description = {
+            "The pages to be processed, e.g. \"1\", \"1 3-5 odd\".",
+            "Keywords `odd` and `even` expand to the odd",
+            "numbered and even numbered pages; `3-7` expands",
+            "to the pages in between, e.g. `r10-last/2`, every",
+            "second page of the last 10. Using `reverse` before",
+            "`odd`, `even` or a range reverses its order;",
+            "`except` or `and` before pages removes or keeps",
+            "only them, e.g. \"all except 3\".",
+            "A page given more than once is written once by",
+            "commands writing a file per page.",
+            "Default: all pages"
+        }
+    )
+    public String pagesString;
+
+    /**
+     * Returns the zero-based indexes of the selected pages in the order they
+     * are specified, or of all pages if no pages are specified.
+     *
+     * @param numberOfPages The number of pages in the document
+     * @return The indexes of the selected pages
+     * @throws BadPageSetException The pages string is invalid
+     */
+    public int[] getPageIndexes(int numberOfPages)
+            throws BadPageSetException {
+        if (this.pagesString == null) {
+            return PageSet.all(numberOfPages).toIndexes();
+        }
+        return PageSet.parse(this.pagesString, numberOfPages).toIndexes();
+    }
+
+    /**
+     * Returns the zero-based indexes of the selected pages like
+     * getPageIndexes, keeping a page selected more than once only where it
+     * first appears. Commands writing a file per page use these, so no two
+     * threads write the same file.
+     *
+     * @param numberOfPages The number of pages in the document
+     * @return The indexes of the selected pages, each once
+     * @throws BadPageSetException The pages string is invalid
+     */
+    public int[] getDistinctPageIndexes(int numberOfPages)
+            throws BadPageSetException {
+        int[] pageIndexes = this.getPageIndexes(numberOfPages);
+        var selectedPages = new BitSet(numberOfPages);
+        int count = 0;
+        for (int index : pageIndexes) {
+            if (!selectedPages.get(index)) {
+                selectedPages.set(index);
+                pageIndexes[count++] = index;
+            }
+        }
+        return count == pageIndexes.length ? pageIndexes
+                : Arrays.copyOf(pageIndexes, count);
+    }
+}
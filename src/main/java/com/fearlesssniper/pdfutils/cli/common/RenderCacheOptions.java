@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.cli.common;
+
+import com.fearlesssniper.pdfutils.util.PDDocExtra;
+import com.fearlesssniper.pdfutils.util.RenderCache;
+import java.io.File;
+import java.io.IOException;
+import picocli.CommandLine.Option;
+
+/**
+ * The common options for caching rendered pages on disk
+ * @author fearlesssniper
+ */
+public class RenderCacheOptions {
+    @Option(
+        names = {"--cache-dir"},
+        description = {
+            "The directory to cache the rendered pages in.",
+            "Rendering the same document again at the same",
+            "resolution reads the pages from the cache instead."
+        }
+    )
+    public File cacheDir;
+
+    @Option(
+        names = {"--cache-size"},
+        description = {
+            "The maximum size of the cache in MB. The least",
+            "recently used pages are removed first.",
+            "Default: ${DEFAULT-VALUE}"
+        },
+        defaultValue = "2048"
+    )
+    public long cacheSizeMB;
+
+    /**
+     * Sets up the cache for the document if a cache directory is given.
+     *
+     * @param doc The document to be rendered
+     * @param docFile The file the document is loaded from
+     * @throws IOException The cache or the file cannot be read
+     */
+    public void applyTo(PDDocExtra doc, File docFile) throws IOException {
+        if (this.cacheDir != null) {
+            doc.setRenderCache(
+                    new RenderCache(this.cacheDir, this.cacheSizeMB * 1024 * 1024),
+                    RenderCache.hashFile(docFile));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageTree;
+
+/**
+ * Rebuilds the page tree of a document as a balanced tree, with every node
+ * holding at most a given number of kids.
+ *
+ * PDPageTree.add puts every page straight under the root, so a document
+ * merged from many inputs has a root with thousands of kids, which readers
+ * search linearly to find a page. In a balanced tree a page is found in a
+ * few steps however many pages there are.
+ *
+ * @author fearlesssniper
+ */
+public class BalancedPageTree {
+
+    /**
+     * The number of kids of a node used when none is given.
+     */
+    public static final int DEFAULT_MAX_KIDS = 32;
+
+    // The attributes pages inherit from the nodes above them
+    private static final COSName[] INHERITABLE = {COSName.RESOURCES,
+            COSName.MEDIA_BOX, COSName.CROP_BOX, COSName.ROTATE};
+
+    private BalancedPageTree() {
+    }
+
+    /**
+     * Rebuilds the page tree of the document with the default number of
+     * kids per node.
+     *
+     * @param doc The document
+     */
+    public static void rebuild(PDDocument doc) {
+        rebuild(doc, DEFAULT_MAX_KIDS);
+    }
+
+    /**
+     * Rebuilds the page tree of the document, keeping the order of the
+     * pages. The attributes pages inherit from the nodes of the old tree
+     * are set on the pages themselves, and the root node is kept, so a
+     * PDPageTree of the document stays valid.
+     *
+     * @param doc The document
+     * @param maxKids The maximum number of kids of a node, at least 2
+     */
+    public static void rebuild(PDDocument doc, int maxKids) {
+        var pages = new ArrayList<PDPage>(doc.getNumberOfPages());
+        for (PDPage page : doc.getPages()) {
+            pages.add(page);
+        }
+        build(doc, pages, maxKids);
+    }
+
+    /**
+     * Replaces the pages of the document with the given pages, in a tree
+     * with the default number of kids per node.
+     *
+     * @param doc The document
+     * @param pages The pages of the document in order
+     */
+    public static void build(PDDocument doc, List<PDPage> pages) {
+        build(doc, pages, DEFAULT_MAX_KIDS);
+    }
+
+    /**
+     * Replaces the pages of the document with the given pages, in a tree
+     * with at most the given number of kids per node. The pages may come
+     * from the tree of another document; the attributes they inherit there
+     * are set on the pages themselves before they are moved.
+     *
+     * @param doc The document
+     * @param pages The pages of the document in order
+     * @param maxKids The maximum number of kids of a node, at least 2
+     */
+    public static void build(PDDocument doc, List<PDPage> pages, int maxKids) {
+        if (maxKids < 2) {
+            throw new IllegalArgumentException(
+                    "A node must be allowed at least 2 kids");
+        }
+        var pageDicts = new ArrayList<COSDictionary>(pages.size());
+        for (PDPage page : pages) {
+            setInheritedAttributes(page);
+            pageDicts.add(page.getCOSObject());
+        }
+        COSDictionary root = doc.getPages().getCOSObject();
+        for (COSName name : INHERITABLE) {
+            root.removeItem(name);
+        }
+        fillNode(root, pageDicts, 0, pageDicts.size(), maxKids);
+    }
+
+    /**
+     * Sets the inheritable attributes of a page that it takes from its
+     * parents on the page itself. The inherited objects are shared between
+     * the pages instead of copied, so they are still written once.
+     */
+    private static void setInheritedAttributes(PDPage page) {
+        COSDictionary pageDict = page.getCOSObject();
+        for (COSName name : INHERITABLE) {
+            if (!pageDict.containsKey(name)) {
+                COSBase value = PDPageTree.getInheritableAttribute(pageDict, name);
+                if (value != null) {
+                    pageDict.setItem(name, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the pages from the start to the end index the descendants of
+     * the node, splitting them evenly between as few levels of nodes as the
+     * maximum number of kids allows.
+     */
+    private static void fillNode(COSDictionary node, List<COSDictionary> pages,
+            int start, int end, int maxKids) {
+        int count = end - start;
+        // The number of pages each kid can hold with the levels needed
+        long kidCapacity = 1;
+        while (kidCapacity * maxKids < count) {
+            kidCapacity *= maxKids;
+        }
+        int kidCount = (int) ((count + kidCapacity - 1) / kidCapacity);
+        var kids = new COSArray();
+        for (int i = 0; i < kidCount; i++) {
+            int kidStart = start + (int) ((long) count * i / kidCount);
+            int kidEnd = start + (int) ((long) count * (i + 1) / kidCount);
+            COSDictionary kid;
+            if (kidCapacity == 1) {
+                kid = pages.get(kidStart);
+            } else {
+                kid = new COSDictionary();
+                kid.setItem(COSName.TYPE, COSName.PAGES);
+                fillNode(kid, pages, kidStart, kidEnd, maxKids);
+            }
+            kid.setItem(COSName.PARENT, node);
+            kids.add(kid);
+        }
+        node.setItem(COSName.KIDS, kids);
+        node.setInt(COSName.COUNT, count);
+    }
+}
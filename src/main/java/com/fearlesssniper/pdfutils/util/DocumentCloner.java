@@ -0,0 +1,257 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+/**
+ * Deep-copies the pages of one source document into a destination
+ * document, so the source can be closed once its pages are copied.
+ *
+ * Stream data is copied into the scratch buffers of the destination, so
+ * with a scratch file the copies do not stay on the heap. The pages of the
+ * source are mapped to their copies before anything is copied, so links and
+ * annotations pointing at a page point at its copy, and the page tree of
+ * the source is never copied along.
+ *
+ * Given a stream pool, a copied stream or font dictionary equal to one
+ * already in the pool is replaced by the one in the pool, so resources
+ * repeated across the source documents are stored once.
+ *
+ * A cloner is used for one source document only; it keeps every copied
+ * object of the source until it is discarded.
+ *
+ * @author fearlesssniper
+ */
+public class DocumentCloner {
+
+    private final PDDocument destination;
+    // The copies of the objects of the source, by identity
+    private final Map<COSBase, COSBase> clones = new IdentityHashMap<>();
+    // The copies being filled, and those referred to while being filled
+    private final Set<COSBase> pending = newIdentitySet();
+    private final Set<COSBase> referencedWhilePending = newIdentitySet();
+    private final StreamPool streamPool;
+
+    /**
+     * Creates a cloner copying into the destination document.
+     *
+     * @param destination The document the copies are made for
+     */
+    public DocumentCloner(PDDocument destination) {
+        this(destination, null);
+    }
+
+    /**
+     * Creates a cloner copying into the destination document, sharing the
+     * copied streams through the pool.
+     *
+     * @param destination The document the copies are made for
+     * @param streamPool The streams already copied into the destination, or
+     * null to keep every copied stream
+     */
+    public DocumentCloner(PDDocument destination, StreamPool streamPool) {
+        this.destination = destination;
+        this.streamPool = streamPool;
+    }
+
+    private static Set<COSBase> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    /**
+     * Copies all pages of the source document, in order. The pages are not
+     * added to the destination.
+     *
+     * @param source The source document
+     * @return The copies of the pages
+     * @throws IOException Error reading the source or writing the copies
+     */
+    public PDPage[] clonePages(PDDocument source) throws IOException {
+        PDPage[] pages = new PDPage[source.getNumberOfPages()];
+        var pageDicts = new COSDictionary[pages.length];
+        int i = 0;
+        for (PDPage page : source.getPages()) {
+            pages[i] = page;
+            pageDicts[i] = new COSDictionary();
+            // Registered first, so references to any page resolve to its copy
+            this.clones.put(page.getCOSObject(), pageDicts[i]);
+            this.pending.add(pageDicts[i]);
+            i++;
+        }
+        var copies = new PDPage[pages.length];
+        for (i = 0; i < pages.length; i++) {
+            copies[i] = this.clonePage(pages[i], pageDicts[i]);
+        }
+        return copies;
+    }
+
+    /**
+     * Copies a page into the given empty dictionary. The parent is left out,
+     * and the attributes the page inherits from its parents are set on the
+     * copy, as it is added to another page tree.
+     */
+    private PDPage clonePage(PDPage page, COSDictionary pageDict)
+            throws IOException {
+        for (Map.Entry<COSName, COSBase> entry : page.getCOSObject().entrySet()) {
+            if (!COSName.PARENT.equals(entry.getKey())) {
+                pageDict.setItem(entry.getKey(), this.cloneObject(entry.getValue()));
+            }
+        }
+        var copy = new PDPage(pageDict);
+        PDResources resources = page.getResources();
+        if (resources != null) {
+            copy.setResources(new PDResources(
+                    (COSDictionary) this.cloneObject(resources.getCOSObject())));
+        }
+        copy.setMediaBox(new PDRectangle(
+                (COSArray) this.cloneObject(page.getMediaBox().getCOSArray())));
+        copy.setCropBox(new PDRectangle(
+                (COSArray) this.cloneObject(page.getCropBox().getCOSArray())));
+        if (page.getRotation() != 0) {
+            copy.setRotation(page.getRotation());
+        }
+        this.pending.remove(pageDict);
+        return copy;
+    }
+
+    /**
+     * Returns the copy of an object of the source, copying it if it has not
+     * been copied yet. Indirect references are resolved, and the copies are
+     * written as indirect objects when the destination is saved.
+     *
+     * @param base The object of the source
+     * @return The copy of the object
+     * @throws IOException Error copying stream data
+     */
+    public COSBase cloneObject(COSBase base) throws IOException {
+        if (base instanceof COSObject) {
+            base = ((COSObject) base).getObject();
+        }
+        if (base == null) {
+            return COSNull.NULL;
+        }
+        COSBase clone = this.clones.get(base);
+        if (clone != null) {
+            if (this.pending.contains(clone)) {
+                this.referencedWhilePending.add(clone);
+            }
+            return clone;
+        }
+        if (base instanceof COSStream) {
+            return this.cloneStream((COSStream) base);
+        } else if (base instanceof COSDictionary) {
+            var dictClone = new COSDictionary();
+            dictClone.setDirect(base.isDirect());
+            this.clones.put(base, dictClone);
+            this.pending.add(dictClone);
+            this.copyEntries((COSDictionary) base, dictClone);
+            this.pending.remove(dictClone);
+            if (this.streamPool != null && StreamPool.isShareable(dictClone)
+                    && !this.referencedWhilePending.contains(dictClone)) {
+                COSDictionary shared = this.streamPool.share(dictClone, this.pending);
+                this.clones.put(base, shared);
+                return shared;
+            }
+            return dictClone;
+        } else if (base instanceof COSArray) {
+            COSArray array = (COSArray) base;
+            var arrayClone = new COSArray();
+            arrayClone.setDirect(base.isDirect());
+            this.clones.put(base, arrayClone);
+            this.pending.add(arrayClone);
+            for (int i = 0; i < array.size(); i++) {
+                arrayClone.add(this.cloneObject(array.get(i)));
+            }
+            this.pending.remove(arrayClone);
+            return arrayClone;
+        }
+        // Names, numbers, strings, booleans and null are not changed by the
+        // destination, so they are shared
+        return base;
+    }
+
+    /**
+     * Copies a stream, replacing the copy with an equal stream of the pool
+     * if there is one. A copy referred to by the objects it refers to is
+     * kept, as those objects hold it already.
+     */
+    private COSStream cloneStream(COSStream stream) throws IOException {
+        COSStream streamClone = this.destination.getDocument().createCOSStream();
+        this.clones.put(stream, streamClone);
+        this.pending.add(streamClone);
+        MessageDigest digest = this.streamPool == null
+                ? null : StreamPool.newDigest();
+        // The raw data is copied, so the stream is not decoded
+        try (InputStream in = stream.createRawInputStream();
+                OutputStream out = digest == null
+                        ? streamClone.createRawOutputStream()
+                        : new DigestOutputStream(
+                                streamClone.createRawOutputStream(), digest)) {
+            IOUtils.copy(in, out);
+        }
+        this.copyEntries(stream, streamClone);
+        this.pending.remove(streamClone);
+        if (digest == null || this.referencedWhilePending.contains(streamClone)) {
+            return streamClone;
+        }
+        COSStream shared = this.streamPool.share(streamClone, digest, this.pending);
+        if (shared != streamClone) {
+            this.clones.put(stream, shared);
+            // Frees the scratch buffer of the discarded copy
+            streamClone.close();
+        }
+        return shared;
+    }
+
+    private void copyEntries(COSDictionary dict, COSDictionary dictClone)
+            throws IOException {
+        for (Map.Entry<COSName, COSBase> entry : dict.entrySet()) {
+            // The length of a copied stream is set by the copy
+            if (!(dictClone instanceof COSStream && COSName.LENGTH.equals(entry.getKey()))) {
+                dictClone.setItem(entry.getKey(), this.cloneObject(entry.getValue()));
+            }
+        }
+    }
+}
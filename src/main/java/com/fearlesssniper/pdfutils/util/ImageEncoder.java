@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.util;
+
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encodes images in one format with fixed settings.
+ *
+ * Looking up an ImageWriter is not cheap and writers are not thread-safe, so
+ * every thread keeps its own writer and reuses it for all the images it
+ * encodes.
+ *
+ * @author fearlesssniper
+ */
+public class ImageEncoder {
+
+    private final String formatName;
+    private final ThreadLocal<ImageWriter> threadWriter;
+    // Settings left null use the defaults of the writer
+    private Float compressionQuality;
+    private boolean progressive;
+    private boolean optimizeHuffman;
+
+    /**
+     * Creates an encoder with the default settings of the format.
+     *
+     * @param formatName The informal name of the format, e.g. jpg, png
+     */
+    public ImageEncoder(String formatName) {
+        if (!ImageIO.getImageWritersByFormatName(formatName).hasNext()) {
+            throw new IllegalArgumentException(
+                    "No image writer for format " + formatName);
+        }
+        this.formatName = formatName;
+        this.threadWriter = ThreadLocal.withInitial(
+                () -> ImageIO.getImageWritersByFormatName(formatName).next());
+    }
+
+    public String getFormatName() {
+        return this.formatName;
+    }
+
+    /**
+     * Sets the quality of a lossy format such as JPEG.
+     *
+     * @param quality The quality from 1 (smallest) to 100 (best)
+     */
+    public void setQuality(int quality) {
+        if (quality < 1 || quality > 100) {
+            throw new IllegalArgumentException(
+                    "The quality must be between 1 and 100");
+        }
+        this.compressionQuality = quality / 100f;
+    }
+
+    /**
+     * Sets the deflate level of a lossless format such as PNG. Lower levels
+     * encode faster but give larger files.
+     *
+     * @param level The deflate level from 0 (fastest) to 9 (smallest)
+     */
+    public void setCompressionLevel(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException(
+                    "The compression level must be between 0 and 9");
+        }
+        // The PNG writer maps a quality of q to the deflate level 9 - 9q
+        this.compressionQuality = (9 - level) / 9f;
+    }
+
+    /**
+     * Sets whether the image is written progressively, if the format
+     * supports it.
+     *
+     * @param progressive Whether to write progressively
+     */
+    public void setProgressive(boolean progressive) {
+        this.progressive = progressive;
+    }
+
+    /**
+     * Sets whether optimized Huffman tables are computed for the image, which
+     * gives smaller JPEG files at the cost of an extra pass.
+     *
+     * @param optimizeHuffman Whether to optimize the Huffman tables
+     */
+    public void setOptimizeHuffman(boolean optimizeHuffman) {
+        this.optimizeHuffman = optimizeHuffman;
+    }
+
+    private ImageWriteParam getWriteParam(ImageWriter writer) {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (this.compressionQuality != null && param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(this.compressionQuality);
+        }
+        if (this.progressive && param.canWriteProgressive()) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        if (this.optimizeHuffman && param instanceof JPEGImageWriteParam) {
+            ((JPEGImageWriteParam) param).setOptimizeHuffmanTables(true);
+        }
+        return param;
+    }
+
+    /**
+     * Encodes the image to the image stream with the writer of this thread.
+     */
+    private void write(RenderedImage image, ImageOutputStream imageStream)
+            throws IOException {
+        ImageWriter writer = this.threadWriter.get();
+        try {
+            writer.setOutput(imageStream);
+            writer.write(null, new IIOImage(image, null, null),
+                    this.getWriteParam(writer));
+        } finally {
+            writer.reset();
+        }
+    }
+
+    /**
+     * Encodes the image to the stream. The stream is not closed.
+     *
+     * @param image The image to be encoded
+     * @param out The output stream
+     * @throws IOException Error encoding or writing the image
+     */
+    public void write(RenderedImage image, OutputStream out) throws IOException {
+        // Cached in memory instead of in a temporary file like ImageIO.write
+        try (var imageStream = new MemoryCacheImageOutputStream(out)) {
+            this.write(image, imageStream);
+        }
+    }
+
+    /**
+     * Encodes the image to the file. The image is written to a temporary
+     * file next to it first, so the file never holds half an image even if
+     * the program is killed while writing.
+     *
+     * @param image The image to be encoded
+     * @param file The output file, replaced if it exists
+     * @throws IOException Error encoding or writing the image
+     */
+    public void write(RenderedImage image, File file) throws IOException {
+        // A unique name, so writers of the same file do not share it
+        Path partFile = Files.createTempFile(
+                file.getAbsoluteFile().getParentFile().toPath(),
+                file.getName(), ".part");
+        try {
+            // Made again by the stream, so the image gets the usual
+            // permissions instead of the owner-only ones of a temporary file
+            Files.delete(partFile);
+            try (var imageStream = new FileImageOutputStream(partFile.toFile())) {
+                this.write(image, imageStream);
+            }
+            Files.move(partFile, file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partFile);
+        }
+    }
+}
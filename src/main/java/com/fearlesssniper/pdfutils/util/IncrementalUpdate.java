@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.util;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Saves the changed objects of a document as an incremental update: the
+ * objects and a new cross-reference section are appended after the bytes
+ * of the original file, which are left as they are.
+ *
+ * PDDocument.saveIncremental copies the whole original file to the output
+ * before the update. Here the update is appended to the output file
+ * directly, so saving back to the original file only writes the update,
+ * however large the file is.
+ *
+ * @author fearlesssniper
+ */
+public class IncrementalUpdate {
+
+    private IncrementalUpdate() {
+    }
+
+    /**
+     * Saves the changed objects of a document loaded from the source file
+     * to the output file. If the output file is not the source file, the
+     * source file is copied to it first.
+     *
+     * @param doc The document loaded from the source file
+     * @param sourceFile The file the document was loaded from
+     * @param changedObjects The objects of the document that are changed
+     * @param outputFile The file to write to; may be the source file
+     * @throws IOException Error writing the update; the output file is left
+     * as the source file was
+     */
+    public static void save(PDDocument doc, File sourceFile,
+            Set<COSDictionary> changedObjects, File outputFile)
+            throws IOException {
+        long sourceLength = sourceFile.length();
+        if (!outputFile.exists()
+                || !Files.isSameFile(sourceFile.toPath(), outputFile.toPath())) {
+            Files.copy(sourceFile.toPath(), outputFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        try (FileChannel channel = FileChannel.open(outputFile.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.position(sourceLength);
+            try {
+                // Not closed, as closing it closes the channel
+                OutputStream out = new BufferedOutputStream(
+                        Channels.newOutputStream(channel));
+                var writer = new COSWriter(out, new OriginalLength(sourceLength),
+                        changedObjects);
+                writer.write(doc);
+                out.flush();
+            } catch (IOException | RuntimeException e) {
+                // A partly written update is cut off
+                channel.truncate(sourceLength);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stands for the original file in COSWriter, which only needs its
+     * length to place the update after it. COSWriter copies the original
+     * file to the output before the update; as the update is appended to a
+     * file already holding it, nothing is read.
+     */
+    private static class OriginalLength implements RandomAccessRead {
+
+        private final long length;
+        private boolean closed;
+
+        OriginalLength(long length) {
+            this.length = length;
+        }
+
+        @Override
+        public int read() {
+            return -1;
+        }
+
+        @Override
+        public int read(byte[] b) {
+            return -1;
+        }
+
+        @Override
+        public int read(byte[] b, int offset, int length) {
+            return -1;
+        }
+
+        @Override
+        public long getPosition() {
+            return this.length;
+        }
+
+        @Override
+        public void seek(long position) {
+        }
+
+        @Override
+        public long length() {
+            return this.length;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return this.closed;
+        }
+
+        @Override
+        public int peek() {
+            return -1;
+        }
+
+        @Override
+        public void rewind(int bytes) {
+        }
+
+        @Override
+        public byte[] readFully(int length) throws IOException {
+            throw new EOFException();
+        }
+
+        @Override
+        public boolean isEOF() {
+            return true;
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import org.apache.pdfbox.io.RandomAccessRead;
+
+/**
+ * Reads a file through memory mapping instead of a buffered stream. The
+ * pages of the file live in the page cache of the operating system instead
+ * of on the heap, and seeking around the file, as the PDF parser does, does
+ * not refill a buffer.
+ *
+ * Files larger than 2 GB are mapped in several chunks. The mapping is only
+ * released when the buffers are garbage collected, so the file may stay
+ * mapped for a while after being closed.
+ *
+ * @author fearlesssniper
+ */
+public class MappedFileRandomAccessRead implements RandomAccessRead {
+
+    // A power of two below the 2 GB limit of a mapped buffer
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    private MappedByteBuffer[] chunks;
+    private final long length;
+    private long position;
+
+    /**
+     * Maps the whole file for reading.
+     *
+     * @param file The file to be read
+     * @throws IOException The file cannot be opened or mapped
+     */
+    public MappedFileRandomAccessRead(File file) throws IOException {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.length = channel.size();
+            int chunkCount = (int) ((this.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            this.chunks = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                long offset = i * CHUNK_SIZE;
+                this.chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        offset, Math.min(CHUNK_SIZE, this.length - offset));
+            }
+        }
+    }
+
+    private void checkClosed() throws IOException {
+        if (this.chunks == null) {
+            throw new IOException("The file has been closed");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        this.checkClosed();
+        if (this.position >= this.length) {
+            return -1;
+        }
+        int b = this.chunks[(int) (this.position >>> CHUNK_BITS)]
+                .get((int) (this.position & (CHUNK_SIZE - 1))) & 0xff;
+        this.position++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return this.read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        this.checkClosed();
+        if (len == 0) {
+            return 0;
+        }
+        if (this.position >= this.length) {
+            return -1;
+        }
+        int total = (int) Math.min(len, this.length - this.position);
+        int done = 0;
+        while (done < total) {
+            // A read may cross the end of a chunk
+            MappedByteBuffer chunk = this.chunks[(int) (this.position >>> CHUNK_BITS)];
+            int offset = (int) (this.position & (CHUNK_SIZE - 1));
+            int count = Math.min(total - done, chunk.capacity() - offset);
+            chunk.duplicate().position(offset).get(b, off + done, count);
+            done += count;
+            this.position += count;
+        }
+        return total;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+        this.checkClosed();
+        return this.position;
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        this.checkClosed();
+        if (position < 0) {
+            throw new IOException("Invalid position " + position);
+        }
+        this.position = Math.min(position, this.length);
+    }
+
+    @Override
+    public long length() throws IOException {
+        this.checkClosed();
+        return this.length;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.chunks == null;
+    }
+
+    @Override
+    public int peek() throws IOException {
+        int b = this.read();
+        if (b != -1) {
+            this.position--;
+        }
+        return b;
+    }
+
+    @Override
+    public void rewind(int bytes) throws IOException {
+        this.seek(this.position - bytes);
+    }
+
+    @Override
+    public byte[] readFully(int length) throws IOException {
+        byte[] b = new byte[length];
+        if (this.read(b, 0, length) < length) {
+            throw new EOFException("Premature end of file");
+        }
+        return b;
+    }
+
+    @Override
+    public boolean isEOF() throws IOException {
+        this.checkClosed();
+        return this.position >= this.length;
+    }
+
+    @Override
+    public int available() throws IOException {
+        this.checkClosed();
+        return (int) Math.min(this.length - this.position, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() {
+        this.chunks = null;
+    }
+}
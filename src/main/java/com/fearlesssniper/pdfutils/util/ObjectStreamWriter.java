@@ -0,0 +1,476 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.encryption.SecurityHandler;
+
+/**
+ * Saves a document with its objects packed into compressed object streams
+ * and a cross-reference stream instead of a cross-reference table, as PDF
+ * 1.5 allows.
+ *
+ * COSWriter writes every object at the top level, where the dictionaries
+ * of pages, fonts and annotations are stored uncompressed, and lists every
+ * object in a table of 20 bytes per entry. Here only streams are written
+ * at the top level; the other objects are written a hundred at a time
+ * into a Flate-compressed object stream, and the cross-reference entries
+ * are compressed too.
+ *
+ * Objects are written the way COSWriter writes them: streams, dictionaries
+ * not marked direct and objects referenced indirectly are indirect objects,
+ * but they are numbered afresh in the order they are reached. Encrypted
+ * documents are encrypted as COSWriter does, with the strings of objects
+ * in object streams encrypted as part of the object stream.
+ *
+ * @author fearlesssniper
+ */
+public class ObjectStreamWriter {
+
+    // The number of objects written into each object stream
+    private static final int OBJECTS_PER_STREAM = 100;
+    private static final byte[] BINARY_COMMENT = {'%', (byte) 0xE2, (byte) 0xE3,
+            (byte) 0xCF, (byte) 0xD3, '\n'};
+
+    private final PDDocument doc;
+    private final CountingOutputStream output;
+    // Null if the document is not encrypted
+    private SecurityHandler securityHandler;
+    private COSDictionary encryptionDict;
+
+    private final Map<COSBase, Integer> objectNumbers = new IdentityHashMap<>();
+    private final ArrayDeque<COSBase> pendingObjects = new ArrayDeque<>();
+    private int objectCount;
+    // The cross-reference entry of each object number: type, field 2 and
+    // field 3 of the entry
+    private byte[] entryTypes = new byte[1024];
+    private long[] entryField2 = new long[1024];
+    private int[] entryField3 = new int[1024];
+
+    // The object stream being filled
+    private final ByteArrayOutputStream streamObjects = new ByteArrayOutputStream();
+    private final StringBuilder streamOffsets = new StringBuilder();
+    private final int[] streamObjectNumbers = new int[OBJECTS_PER_STREAM];
+    private int streamObjectCount;
+
+    private ObjectStreamWriter(PDDocument doc, OutputStream output) {
+        this.doc = doc;
+        this.output = new CountingOutputStream(output);
+    }
+
+    /**
+     * Saves the document to the file with compressed object streams.
+     *
+     * @param doc The document
+     * @param outputFile The file to write to
+     * @throws IOException Error reading or writing the objects
+     */
+    public static void save(PDDocument doc, File outputFile) throws IOException {
+        try (var out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+            save(doc, out);
+        }
+    }
+
+    /**
+     * Saves the document to the stream with compressed object streams. The
+     * stream is not closed.
+     *
+     * @param doc The document
+     * @param output The stream to write to
+     * @throws IOException Error reading or writing the objects
+     */
+    public static void save(PDDocument doc, OutputStream output) throws IOException {
+        if (doc.getDocument().isClosed()) {
+            throw new IOException("Cannot save a document which has been closed");
+        }
+        new ObjectStreamWriter(doc, output).write();
+        output.flush();
+    }
+
+    private void write() throws IOException {
+        COSDocument cosDoc = this.doc.getDocument();
+        COSDictionary trailer = cosDoc.getTrailer();
+        // What COSWriter does before writing
+        if (this.doc.isAllSecurityToBeRemoved()) {
+            trailer.removeItem(COSName.ENCRYPT);
+        } else if (this.doc.getEncryption() != null) {
+            SecurityHandler handler = this.doc.getEncryption().getSecurityHandler();
+            if (!handler.hasProtectionPolicy()) {
+                throw new IllegalStateException("PDF contains an encryption"
+                        + " dictionary, please remove it with"
+                        + " setAllSecurityToBeRemoved() or set a protection"
+                        + " policy with protect()");
+            }
+            handler.prepareDocumentForEncryption(this.doc);
+            this.securityHandler = handler;
+            this.encryptionDict = this.doc.getEncryption().getCOSObject();
+        }
+        COSBase id = trailer.getDictionaryObject(COSName.ID);
+        if (!(id instanceof COSArray) || ((COSArray) id).size() != 2) {
+            trailer.setItem(COSName.ID, this.newDocumentId(trailer));
+        }
+
+        this.writeASCII("%PDF-" + Math.max(this.doc.getVersion(), 1.5f) + "\n");
+        this.output.write(BINARY_COMMENT);
+        var xrefDict = new COSDictionary();
+        for (COSName name : new COSName[] {COSName.ROOT, COSName.INFO}) {
+            COSBase object = trailer.getDictionaryObject(name);
+            if (object != null) {
+                xrefDict.setItem(name, object);
+                this.getObjectNumber(object);
+            }
+        }
+        if (this.encryptionDict != null) {
+            xrefDict.setItem(COSName.ENCRYPT, this.encryptionDict);
+            this.getObjectNumber(this.encryptionDict);
+        }
+        xrefDict.setItem(COSName.ID, trailer.getDictionaryObject(COSName.ID));
+
+        while (!this.pendingObjects.isEmpty()) {
+            COSBase object = this.pendingObjects.remove();
+            int number = this.objectNumbers.get(object);
+            if (object instanceof COSStream) {
+                this.writeStream(number, (COSStream) object,
+                        this.securityHandler != null);
+            } else if (object == this.encryptionDict) {
+                // Neither in an object stream nor encrypted itself
+                this.setEntry(number, 1, this.output.getByteCount(), 0);
+                this.writeASCII(number + " 0 obj\n");
+                this.writeValue(object, this.output, 0, true);
+                this.writeASCII("\nendobj\n");
+            } else {
+                this.addToObjectStream(number, object);
+            }
+        }
+        this.flushObjectStream();
+        this.writeXrefStream(xrefDict);
+    }
+
+    /**
+     * Returns a new document ID the way COSWriter makes one.
+     */
+    private COSArray newDocumentId(COSDictionary trailer) throws IOException {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        md5.update(Long.toString(System.currentTimeMillis())
+                .getBytes(StandardCharsets.ISO_8859_1));
+        COSBase info = trailer.getDictionaryObject(COSName.INFO);
+        if (info instanceof COSDictionary) {
+            for (COSBase value : ((COSDictionary) info).getValues()) {
+                md5.update(value.toString().getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+        var idString = new COSString(md5.digest());
+        var idArray = new COSArray();
+        idArray.add(idString);
+        idArray.add(idString);
+        return idArray;
+    }
+
+    /**
+     * Returns the number of an indirect object, numbering it and queueing
+     * it to be written if it is reached for the first time.
+     */
+    private int getObjectNumber(COSBase object) {
+        Integer number = this.objectNumbers.get(object);
+        if (number == null) {
+            number = this.newObjectNumber();
+            this.objectNumbers.put(object, number);
+            this.pendingObjects.add(object);
+        }
+        return number;
+    }
+
+    private int newObjectNumber() {
+        this.objectCount++;
+        if (this.objectCount >= this.entryTypes.length) {
+            int capacity = this.entryTypes.length * 2;
+            this.entryTypes = Arrays.copyOf(this.entryTypes, capacity);
+            this.entryField2 = Arrays.copyOf(this.entryField2, capacity);
+            this.entryField3 = Arrays.copyOf(this.entryField3, capacity);
+        }
+        return this.objectCount;
+    }
+
+    private void setEntry(int number, int type, long field2, int field3) {
+        this.entryTypes[number] = (byte) type;
+        this.entryField2[number] = field2;
+        this.entryField3[number] = field3;
+    }
+
+    private void writeASCII(String text) throws IOException {
+        this.output.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void writeASCII(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Writes an object, or a reference to it if it is written as an
+     * indirect object. The strings are encrypted with the key of the given
+     * object number, or not if it is 0.
+     *
+     * @param topLevel Whether the object is the indirect object being
+     * written, which is written out instead of referenced
+     */
+    private void writeValue(COSBase value, OutputStream out,
+            int stringObjectNumber, boolean topLevel) throws IOException {
+        if (value instanceof COSObject) {
+            value = ((COSObject) value).getObject();
+            if (value != null && !(value instanceof COSNull)) {
+                this.writeReference(value, out);
+                return;
+            }
+        }
+        if (value == null || value instanceof COSNull) {
+            writeASCII(out, "null");
+        } else if (value instanceof COSDictionary) {
+            var dict = (COSDictionary) value;
+            if (!topLevel && (dict instanceof COSStream || !dict.isDirect()
+                    || this.objectNumbers.containsKey(dict))) {
+                this.writeReference(dict, out);
+            } else {
+                this.writeDictionary(dict, out, stringObjectNumber, -1);
+            }
+        } else if (value instanceof COSArray) {
+            out.write('[');
+            boolean first = true;
+            for (COSBase item : (COSArray) value) {
+                if (!first) {
+                    out.write(' ');
+                }
+                first = false;
+                this.writeValue(item, out, stringObjectNumber, false);
+            }
+            out.write(']');
+        } else if (value instanceof COSString) {
+            var string = (COSString) value;
+            if (stringObjectNumber != 0) {
+                // Encrypted as a copy, so a string used twice is not
+                // encrypted twice
+                var encrypted = new COSString(string.getBytes());
+                encrypted.setForceHexForm(string.getForceHexForm());
+                this.securityHandler.encryptString(encrypted, stringObjectNumber, 0);
+                string = encrypted;
+            }
+            COSWriter.writeString(string, out);
+        } else if (value instanceof COSName) {
+            ((COSName) value).writePDF(out);
+        } else if (value instanceof COSInteger) {
+            ((COSInteger) value).writePDF(out);
+        } else if (value instanceof COSFloat) {
+            ((COSFloat) value).writePDF(out);
+        } else if (value instanceof COSBoolean) {
+            ((COSBoolean) value).writePDF(out);
+        } else {
+            throw new IOException("Cannot write an object of type "
+                    + value.getClass().getSimpleName());
+        }
+    }
+
+    private void writeReference(COSBase object, OutputStream out) throws IOException {
+        writeASCII(out, this.getObjectNumber(object) + " 0 R");
+    }
+
+    /**
+     * Writes a dictionary, with the given length in place of its Length
+     * entry unless it is negative.
+     */
+    private void writeDictionary(COSDictionary dict, OutputStream out,
+            int stringObjectNumber, long length) throws IOException {
+        writeASCII(out, "<<");
+        boolean first = true;
+        for (Map.Entry<COSName, COSBase> entry : dict.entrySet()) {
+            if (entry.getValue() == null
+                    || (length >= 0 && entry.getKey().equals(COSName.LENGTH))) {
+                continue;
+            }
+            if (!first) {
+                out.write(' ');
+            }
+            first = false;
+            entry.getKey().writePDF(out);
+            out.write(' ');
+            this.writeValue(entry.getValue(), out, stringObjectNumber, false);
+        }
+        if (length >= 0) {
+            writeASCII(out, (first ? "" : " ") + "/Length " + length);
+        }
+        writeASCII(out, ">>");
+    }
+
+    /**
+     * Writes a stream as a top-level object, encrypting it with its object
+     * number if asked to.
+     */
+    private void writeStream(int number, COSStream stream, boolean encrypt)
+            throws IOException {
+        if (encrypt) {
+            this.securityHandler.encryptStream(stream, number, 0);
+        }
+        this.setEntry(number, 1, this.output.getByteCount(), 0);
+        this.writeASCII(number + " 0 obj\n");
+        this.writeDictionary(stream, this.output, encrypt ? number : 0,
+                stream.getLength());
+        this.writeASCII("\nstream\n");
+        try (InputStream data = stream.createRawInputStream()) {
+            IOUtils.copy(data, this.output);
+        }
+        this.writeASCII("\nendstream\nendobj\n");
+    }
+
+    /**
+     * Adds an object to the object stream being filled, writing the object
+     * stream out once it is full.
+     */
+    private void addToObjectStream(int number, COSBase object) throws IOException {
+        this.streamOffsets.append(number).append(' ')
+                .append(this.streamObjects.size()).append(' ');
+        this.writeValue(object, this.streamObjects, 0, true);
+        this.streamObjects.write('\n');
+        this.streamObjectNumbers[this.streamObjectCount++] = number;
+        if (this.streamObjectCount == OBJECTS_PER_STREAM) {
+            this.flushObjectStream();
+        }
+    }
+
+    private void flushObjectStream() throws IOException {
+        if (this.streamObjectCount == 0) {
+            return;
+        }
+        int number = this.newObjectNumber();
+        byte[] offsets = this.streamOffsets.toString()
+                .getBytes(StandardCharsets.US_ASCII);
+        try (var objectStream = new COSStream()) {
+            objectStream.setItem(COSName.TYPE, COSName.OBJ_STM);
+            objectStream.setInt(COSName.N, this.streamObjectCount);
+            objectStream.setInt(COSName.FIRST, offsets.length);
+            try (OutputStream out = objectStream.createOutputStream(COSName.FLATE_DECODE)) {
+                out.write(offsets);
+                this.streamObjects.writeTo(out);
+            }
+            this.writeStream(number, objectStream, this.securityHandler != null);
+        }
+        for (int i = 0; i < this.streamObjectCount; i++) {
+            this.setEntry(this.streamObjectNumbers[i], 2, number, i);
+        }
+        this.streamObjects.reset();
+        this.streamOffsets.setLength(0);
+        this.streamObjectCount = 0;
+    }
+
+    /**
+     * Writes the cross-reference stream, which also holds the trailer
+     * entries, and the end of the file.
+     */
+    private void writeXrefStream(COSDictionary xrefDict) throws IOException {
+        int number = this.newObjectNumber();
+        long offset = this.output.getByteCount();
+        this.setEntry(number, 1, offset, 0);
+        this.setEntry(0, 0, 0, 65535);
+        int size = number + 1;
+        // Field 2 is as wide as the largest offset or object stream number
+        int field2Width = 1;
+        while (offset >>> (8 * field2Width) != 0) {
+            field2Width++;
+        }
+        int rowWidth = 1 + field2Width + 2;
+        // The rows are stored as the difference to the row above (PNG Up),
+        // which is mostly zeros and compresses well
+        var previousRow = new byte[rowWidth];
+        var row = new byte[rowWidth];
+        var rows = new ByteArrayOutputStream(size * (rowWidth + 1));
+        for (int i = 0; i < size; i++) {
+            row[0] = this.entryTypes[i];
+            for (int b = 0; b < field2Width; b++) {
+                row[1 + b] = (byte) (this.entryField2[i] >>> (8 * (field2Width - 1 - b)));
+            }
+            row[rowWidth - 2] = (byte) (this.entryField3[i] >>> 8);
+            row[rowWidth - 1] = (byte) this.entryField3[i];
+            rows.write(2);
+            for (int b = 0; b < rowWidth; b++) {
+                rows.write(row[b] - previousRow[b]);
+            }
+            byte[] swap = previousRow;
+            previousRow = row;
+            row = swap;
+        }
+
+        try (var xrefStream = new COSStream()) {
+            xrefStream.addAll(xrefDict);
+            xrefStream.setItem(COSName.TYPE, COSName.XREF);
+            xrefStream.setInt(COSName.SIZE, size);
+            var widths = new COSArray();
+            widths.add(COSInteger.ONE);
+            widths.add(COSInteger.get(field2Width));
+            widths.add(COSInteger.TWO);
+            xrefStream.setItem(COSName.W, widths);
+            var decodeParms = new COSDictionary();
+            decodeParms.setInt(COSName.COLUMNS, rowWidth);
+            decodeParms.setInt(COSName.PREDICTOR, 12);
+            decodeParms.setDirect(true);
+            xrefStream.setItem(COSName.DECODE_PARMS, decodeParms);
+            try (OutputStream out = xrefStream.createOutputStream(COSName.FLATE_DECODE)) {
+                rows.writeTo(out);
+            }
+            // Never encrypted, as it is read before the key is known
+            this.writeStream(number, xrefStream, false);
+        }
+        this.writeASCII("startxref\n" + offset + "\n%%EOF\n");
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * A sidecar file recording the source and settings a set of output files is
+ * written with, so an interrupted run can tell which existing outputs can be
+ * kept.
+ *
+ * Output files are expected to be written atomically, so an output that
+ * exists is complete. Together with a matching manifest, it does not need to
+ * be written again.
+ *
+ * @author fearlesssniper
+ */
+public class OutputManifest {
+
+    private final File manifestFile;
+    private final Properties settings = new Properties();
+
+    /**
+     * Creates an empty manifest for the given file. Nothing is read or
+     * written until asked to.
+     *
+     * @param manifestFile The sidecar file of the outputs
+     */
+    public OutputManifest(File manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    /**
+     * Records a setting of the outputs, e.g. the content hash of the source
+     * or the resolution.
+     *
+     * @param key The name of the setting
+     * @param value The value of the setting, null if not set
+     */
+    public void put(String key, Object value) {
+        this.settings.setProperty(key, String.valueOf(value));
+    }
+
+    /**
+     * Returns whether the manifest on disk was written with the same
+     * settings as this one, i.e. the existing outputs can be kept.
+     *
+     * @return Whether the saved manifest matches
+     * @throws IOException The manifest cannot be read
+     */
+    public boolean matchesSaved() throws IOException {
+        if (!this.manifestFile.isFile()) {
+            return false;
+        }
+        var saved = new Properties();
+        try (InputStream in = new FileInputStream(this.manifestFile)) {
+            saved.load(in);
+        }
+        return saved.equals(this.settings);
+    }
+
+    /**
+     * Writes the manifest to disk, replacing the saved one. This must be
+     * done before any output is written with the new settings.
+     *
+     * @throws IOException The manifest cannot be written
+     */
+    public void save() throws IOException {
+        File tempFile = new File(this.manifestFile.getPath() + ".part");
+        try (OutputStream out = new FileOutputStream(tempFile)) {
+            this.settings.store(out, "pdfutils output manifest");
+        }
+        Files.move(tempFile.toPath(), this.manifestFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -23,13 +23,37 @@
  */
 package com.fearlesssniper.pdfutils.util;
 
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
 
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageTree;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.util.Matrix;
 
 /**
  * Contains extra methods for manipulating PDF documents
@@ -40,29 +64,79 @@ public class PDDocExtra extends PDDocument {
 
     private final PDPageTree currentDocTree;
     private final PDFRenderer renderer;
+    // The loaded document this one wraps, which owns the file source
+    private final PDDocument wrappedDoc;
+    // Opens more handles of the document for rendering in parallel
+    private final ParallelRenderer.DocumentOpener opener;
+    // Optional cache of rendered pages and the content hash of this document
+    private RenderCache renderCache;
+    private String contentHash;
+    // The color type the pages are rendered in
+    private ImageType imageType = ImageType.RGB;
+    // The streams appended from other documents, shared between them
+    private final StreamPool streamPool = new StreamPool();
+    // Appended pages are added flat under the root until the next save
+    private boolean pageTreeFlat;
 
     public PDDocExtra() {
         super();
         currentDocTree = super.getPages();
         renderer = new PDFRenderer(this);
+        wrappedDoc = null;
+        opener = null;
+    }
+
+    /**
+     * Creates an empty document that keeps its buffers as the memory
+     * setting allows.
+     *
+     * @param memUsageSetting Where the buffers of the document are kept
+     */
+    public PDDocExtra(MemoryUsageSetting memUsageSetting) {
+        super(memUsageSetting);
+        currentDocTree = super.getPages();
+        renderer = new PDFRenderer(this);
+        wrappedDoc = null;
+        opener = null;
     }
 
     public PDDocExtra(PDDocument doc) {
+        this(doc, null);
+    }
+
+    /**
+     * Wraps a loaded document that can be opened again by the opener, so
+     * its pages can be rendered on several threads.
+     *
+     * @param doc The loaded document
+     * @param opener Opens another handle of the same document
+     */
+    public PDDocExtra(PDDocument doc, ParallelRenderer.DocumentOpener opener) {
         super(doc.getDocument());
         currentDocTree = super.getPages();
         renderer = new PDFRenderer(this);
+        wrappedDoc = doc;
+        this.opener = opener;
     }
 
     /**
      * Appends another document at the end of the current file.
      *
+     * The pages are deep-copied into this document, so the target document
+     * can be closed as soon as this returns, and only one source needs to
+     * be open at a time when appending many documents. Streams equal to
+     * ones appended before, such as the fonts and images of documents from
+     * the same generator, are stored once. The page tree is balanced when
+     * the document is saved.
+     *
      * @param doc The target document.
+     * @throws IOException Error copying the pages
      */
-    public void appendDoc(PDDocument doc) {
-        PDPageTree targetDocTree = doc.getPages();
-        for (PDPage page : targetDocTree) {
+    public void appendDoc(PDDocument doc) throws IOException {
+        for (PDPage page : new DocumentCloner(this, this.streamPool).clonePages(doc)) {
             this.currentDocTree.add(page);
         }
+        this.pageTreeFlat = true;
     }
 
     /**
@@ -77,25 +151,127 @@ public class PDDocExtra extends PDDocument {
     }
 
     /**
-     * Returns a brand new reordered document.
+     * Returns a brand new reordered document, with its pages in a balanced
+     * tree. The pages are shared with this document, so it must be saved
+     * before this document is closed.
      *
-     * @param ordering The ordering of the pages, zero-indexed.
+     * @param ordering The indexes of the pages in their new order,
+     * zero-indexed. Pages left out are dropped.
      * @return The new reordered PDDocument
+     * @throws IllegalArgumentException An index is out of range or given
+     * more than once; the message counts pages from 1
      */
     public PDDocument getReorderedDoc(int[] ordering) {
-        PDDocument newDoc = new PDDocument();
-        PDPageTree newDocTree = newDoc.getPages();
-        for (int i : ordering) {
-            // The apache documentation did not specify what
-            // will happen if i is out-of-bound;
-            // I'll leave it.
-            newDocTree.add(currentDocTree.get(i));
+        int pageCount = this.getNumberOfPages();
+        var used = new boolean[pageCount];
+        for (int index : ordering) {
+            if (index < 0 || index >= pageCount) {
+                throw new IllegalArgumentException("Page " + (index + 1)
+                        + " is out of range; the document has " + pageCount
+                        + " pages");
+            }
+            if (used[index]) {
+                throw new IllegalArgumentException(
+                        "Page " + (index + 1) + " is given more than once");
+            }
+            used[index] = true;
+        }
+        // Looking a page up in the tree walks the tree, so the pages are
+        // listed in one pass instead
+        var pages = new PDPage[pageCount];
+        int n = 0;
+        for (PDPage page : this.currentDocTree) {
+            pages[n++] = page;
         }
+        var newPages = new ArrayList<PDPage>(ordering.length);
+        for (int index : ordering) {
+            newPages.add(pages[index]);
+        }
+        PDDocument newDoc = new PDDocument();
+        BalancedPageTree.build(newDoc, newPages);
         return newDoc;
     }
 
     /**
-     * Returns the rendered RGB image of the page of the given index.
+     * Inverts a permutation of page indexes. If the page at index i is to
+     * be moved to index permutation[i], the page moved to index j is the
+     * page at index inverse[j], which is the ordering getReorderedDoc
+     * takes.
+     *
+     * @param permutation Where each page is moved to, zero-indexed
+     * @return The inverse permutation
+     * @throws IllegalArgumentException The array is not a permutation of
+     * the indexes from 0 to its length; the message counts from 1
+     */
+    public static int[] invertPermutation(int[] permutation) {
+        var inverse = new int[permutation.length];
+        Arrays.fill(inverse, -1);
+        for (int i = 0; i < permutation.length; i++) {
+            int target = permutation[i];
+            if (target < 0 || target >= permutation.length) {
+                throw new IllegalArgumentException("Position " + (target + 1)
+                        + " is out of range; the order has "
+                        + permutation.length + " pages");
+            }
+            if (inverse[target] != -1) {
+                throw new IllegalArgumentException(
+                        "Position " + (target + 1) + " is given more than once");
+            }
+            inverse[target] = i;
+        }
+        return inverse;
+    }
+
+    /**
+     * Caches the rendered pages of this document, so rendering the document
+     * again reads the pages from the cache instead.
+     *
+     * @param renderCache The cache, or null to render without caching
+     * @param contentHash The content hash of this document
+     * @see RenderCache#hashFile(java.io.File)
+     */
+    public void setRenderCache(RenderCache renderCache, String contentHash) {
+        this.renderCache = renderCache;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Sets the color type the pages are rendered in. Gray and binary images
+     * take a quarter and a thirty-second of the memory of RGB images, and
+     * encode faster.
+     *
+     * @param imageType The image type, RGB by default
+     */
+    public void setImageType(ImageType imageType) {
+        this.imageType = imageType;
+    }
+
+    /**
+     * Opens another handle of this document with the same render settings,
+     * for rendering on another thread.
+     */
+    PDDocExtra openHandle() throws IOException {
+        var doc = new PDDocExtra(this.opener.open(), this.opener);
+        doc.setRenderCache(this.renderCache, this.contentHash);
+        doc.setImageType(this.imageType);
+        return doc;
+    }
+
+    /**
+     * Returns the cached image of the page of the given index, or null if
+     * it is not cached. This does not touch the document, so it can be
+     * called from any thread.
+     */
+    BufferedImage getCachedPageImage(int index, float dpi) {
+        if (this.renderCache == null) {
+            return null;
+        }
+        return this.renderCache.get(this.contentHash, index, dpi, this.imageType);
+    }
+
+    /**
+     * Returns the rendered image of the page of the given index, in the
+     * image type of this document.
      *
      * @param index The index of the page to be rendered
      * @param dpi Resolution in dpi
@@ -103,21 +279,553 @@ public class PDDocExtra extends PDDocument {
      * @throws IOException Thrown by PDFRenderer
      */
     public BufferedImage getPageImage(int index, float dpi) throws IOException {
-        return this.renderer.renderImageWithDPI(index, dpi);
+        BufferedImage image = this.getCachedPageImage(index, dpi);
+        if (image == null) {
+            image = this.renderer.renderImageWithDPI(index, dpi, this.imageType);
+            if (this.renderCache != null) {
+                this.renderCache.put(this.contentHash, index, dpi, this.imageType, image);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Returns the size of the rendered image of the page of the given index,
+     * taking the rotation of the page into account.
+     *
+     * @param index The index of the page
+     * @param dpi Resolution in dpi
+     * @return The width and height in pixels
+     */
+    public Dimension getPageImageSize(int index, float dpi) {
+        PDPage page = this.getPage(index);
+        PDRectangle cropBox = page.getCropBox();
+        float scale = dpi / 72;
+        int width = (int) Math.max(Math.floor(cropBox.getWidth() * scale), 1);
+        int height = (int) Math.max(Math.floor(cropBox.getHeight() * scale), 1);
+        int rotation = page.getRotation();
+        if (rotation == 90 || rotation == 270) {
+            return new Dimension(height, width);
+        }
+        return new Dimension(width, height);
     }
 
     /**
-     * Returns the rendered RGB images of all PDF pages.
+     * Returns the encoded JPEG stream of the page of the given index if the
+     * page is a scanned page, i.e. its content only paints one JPEG image
+     * over the whole page. The stream can be written out as a JPEG file
+     * without decoding and encoding the image again, at the resolution of
+     * the image instead of a chosen dpi.
+     *
+     * Pages with anything else on them, rotated or masked images and images
+     * that do not match the image type of this document are not scanned
+     * pages, so null is returned and the page must be rendered instead.
+     *
+     * @param index The index of the page
+     * @return The encoded JPEG stream, or null if the page is not a scanned
+     * page
+     * @throws IOException Error parsing the content of the page
+     */
+    public InputStream getPageJPEGStream(int index) throws IOException {
+        PDPage page = this.getPage(index);
+        if (page.getRotation() % 360 != 0 || page.getResources() == null) {
+            return null;
+        }
+        PDImageXObject pageImage = null;
+        var ctm = new Matrix();
+        var savedStates = new ArrayDeque<Matrix>();
+        var operands = new ArrayList<Object>();
+        var parser = new PDFStreamParser(page);
+        for (Object token = parser.parseNextToken(); token != null;
+                token = parser.parseNextToken()) {
+            if (!(token instanceof Operator)) {
+                operands.add(token);
+                continue;
+            }
+            switch (((Operator) token).getName()) {
+                case "q":
+                    savedStates.push(ctm);
+                    break;
+                case "Q":
+                    if (savedStates.isEmpty()) {
+                        return null;
+                    }
+                    ctm = savedStates.pop();
+                    break;
+                case "cm":
+                    if (operands.size() != 6) {
+                        return null;
+                    }
+                    var cm = new float[6];
+                    for (int i = 0; i < 6; i++) {
+                        if (!(operands.get(i) instanceof COSNumber)) {
+                            return null;
+                        }
+                        cm[i] = ((COSNumber) operands.get(i)).floatValue();
+                    }
+                    ctm = new Matrix(cm[0], cm[1], cm[2], cm[3], cm[4], cm[5])
+                            .multiply(ctm);
+                    break;
+                case "Do":
+                    if (pageImage != null || operands.size() != 1
+                            || !(operands.get(0) instanceof COSName)) {
+                        return null;
+                    }
+                    PDXObject xObject = page.getResources()
+                            .getXObject((COSName) operands.get(0));
+                    if (!(xObject instanceof PDImageXObject)
+                            || !this.coversPage(ctm, page.getCropBox())) {
+                        return null;
+                    }
+                    pageImage = (PDImageXObject) xObject;
+                    break;
+                default:
+                    // Anything else is drawn over or changes the image
+                    return null;
+            }
+            operands.clear();
+        }
+        if (pageImage == null || !this.isPlainJPEG(pageImage)) {
+            return null;
+        }
+        return pageImage.getCOSObject().createRawInputStream();
+    }
+
+    /**
+     * Returns whether the transformation maps the unit square of an image
+     * onto the box upright, within a point.
+     */
+    private boolean coversPage(Matrix ctm, PDRectangle box) {
+        float tolerance = 1;
+        return ctm.getShearX() == 0 && ctm.getShearY() == 0
+                && Math.abs(ctm.getScaleX() - box.getWidth()) <= tolerance
+                && Math.abs(ctm.getScaleY() - box.getHeight()) <= tolerance
+                && Math.abs(ctm.getTranslateX() - box.getLowerLeftX()) <= tolerance
+                && Math.abs(ctm.getTranslateY() - box.getLowerLeftY()) <= tolerance;
+    }
+
+    /**
+     * Returns whether the image is a JPEG image that looks the same when its
+     * stream is viewed on its own, in the colors of the image type of this
+     * document.
+     */
+    private boolean isPlainJPEG(PDImageXObject image) throws IOException {
+        COSStream stream = image.getCOSObject();
+        if (!List.of(COSName.DCT_DECODE).equals(image.getStream().getFilters())
+                || image.isStencil() || image.getDecode() != null
+                || stream.containsKey(COSName.MASK)
+                || stream.containsKey(COSName.SMASK)) {
+            return false;
+        }
+        // CMYK JPEG files are shown inverted by many viewers
+        int components = image.getColorSpace().getNumberOfComponents();
+        if (this.imageType == ImageType.GRAY) {
+            return components == 1;
+        }
+        return this.imageType == ImageType.RGB
+                && (components == 1 || components == 3);
+    }
+
+    /**
+     * Returns the BufferedImage type of the image type of this document.
+     */
+    int getBufferedImageType() {
+        if (this.imageType == ImageType.BINARY) {
+            return BufferedImage.TYPE_BYTE_BINARY;
+        } else if (this.imageType == ImageType.GRAY) {
+            return BufferedImage.TYPE_BYTE_GRAY;
+        } else if (this.imageType == ImageType.ARGB) {
+            return BufferedImage.TYPE_INT_ARGB;
+        }
+        return BufferedImage.TYPE_INT_RGB;
+    }
+
+    /**
+     * Renders a region of the image of the page of the given index, without
+     * rendering the rest of the page into memory. The render cache is not
+     * used.
+     *
+     * @param index The index of the page
+     * @param dpi Resolution in dpi
+     * @param region The region of the page image in pixels
+     * @return The image of the region
+     * @throws IOException Thrown by PDFRenderer
+     */
+    public BufferedImage renderPageRegion(int index, float dpi, Rectangle region)
+            throws IOException {
+        var image = new BufferedImage(
+                region.width, region.height, this.getBufferedImageType());
+        Graphics2D graphics = image.createGraphics();
+        try {
+            // Cleared like PDFRenderer.renderImage does, as the page may not
+            // cover the last row and column of pixels
+            graphics.setBackground(this.imageType == ImageType.ARGB
+                    ? new Color(0, 0, 0, 0) : Color.WHITE);
+            graphics.clearRect(0, 0, region.width, region.height);
+            graphics.translate(-region.x, -region.y);
+            this.renderer.renderPageToGraphics(index, graphics, dpi / 72);
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Returns the image of the page of the given index, rendered strip by
+     * strip as it is read, for pages too large to be rendered at once.
+     * The image must be read on the thread that owns this document.
+     *
+     * @param index The index of the page
+     * @param dpi Resolution in dpi
+     * @param stripHeight The height of each rendered strip in pixels
+     * @return The image of the page
+     * @see TiledPageImage
+     */
+    public RenderedImage getTiledPageImage(int index, float dpi, int stripHeight) {
+        return new TiledPageImage(this, index, dpi, stripHeight);
+    }
+
+    /**
+     * Receives a tile of the image of a page.
+     */
+    @FunctionalInterface
+    public interface TileConsumer {
+        void accept(int row, int column, BufferedImage tile) throws IOException;
+    }
+
+    /**
+     * Renders the image of the page of the given index in square tiles and
+     * hands each tile to the consumer, so only one tile is held in memory
+     * however large the page is. The tiles at the right and bottom edges
+     * may be smaller.
+     *
+     * @param index The index of the page
+     * @param dpi Resolution in dpi
+     * @param tileSize The width and height of the tiles in pixels
+     * @param consumer Receives the row, column and image of each tile
+     * @throws IOException Thrown by PDFRenderer or the consumer
+     */
+    public void renderPageTiles(int index, float dpi, int tileSize,
+            TileConsumer consumer) throws IOException {
+        Dimension size = this.getPageImageSize(index, dpi);
+        for (int y = 0, row = 0; y < size.height; y += tileSize, row++) {
+            for (int x = 0, column = 0; x < size.width; x += tileSize, column++) {
+                var region = new Rectangle(x, y,
+                        Math.min(tileSize, size.width - x),
+                        Math.min(tileSize, size.height - y));
+                consumer.accept(row, column, this.renderPageRegion(index, dpi, region));
+            }
+        }
+    }
+
+    /**
+     * Works on a page with a document handle owned by the current thread.
+     */
+    @FunctionalInterface
+    public interface PageTask {
+        void run(PDDocExtra doc, int index) throws IOException;
+    }
+
+    /**
+     * Runs the task for the pages of the given indexes on the given number
+     * of threads. Each thread passes its own handle of the document to the
+     * task, so the document must have been given an opener; otherwise the
+     * task runs page by page on the calling thread with this document.
+     *
+     * @param indexes The indexes of the pages
+     * @param threads The number of threads
+     * @param task The task run for each page
+     * @throws IOException Thrown by the task
+     */
+    public void forEachPage(int[] indexes, int threads, PageTask task)
+            throws IOException {
+        if (threads <= 1 || this.opener == null) {
+            for (int index : indexes) {
+                task.run(this, index);
+            }
+            return;
+        }
+        try (var parallelRenderer = new ParallelRenderer(this, threads)) {
+            parallelRenderer.forEachPage(indexes, task);
+        }
+    }
+
+    /**
+     * Receives the rendered image of a page.
+     */
+    @FunctionalInterface
+    public interface PageImageConsumer {
+        void accept(int index, BufferedImage image) throws IOException;
+    }
+
+    /**
+     * Returns the rendered images of all PDF pages.
      *
      * @param dpi Resolution in dpi
      * @return The images of the pages
      * @throws IOException Thrown by PDFRenderer
      */
     public BufferedImage[] getPagesImage(float dpi) throws IOException {
-        BufferedImage[] pageImages = new BufferedImage[this.getNumberOfPages()];
-        for (int i = 0; i < this.getNumberOfPages(); i++) {
-            pageImages[i] = this.renderer.renderImageWithDPI(i, dpi);
+        return this.getPagesImage(dpi, 1);
+    }
+
+    /**
+     * Returns the rendered images of all PDF pages, rendering the pages
+     * on the given number of threads.
+     *
+     * @param dpi Resolution in dpi
+     * @param threads The number of rendering threads
+     * @return The images of the pages, in page order
+     * @throws IOException Thrown by PDFRenderer
+     */
+    public BufferedImage[] getPagesImage(float dpi, int threads)
+            throws IOException {
+        return this.getPagesImage(this.getAllIndexes(), dpi, threads);
+    }
+
+    /**
+     * Returns the rendered images of the pages of the given indexes,
+     * rendering the pages on the given number of threads. Only the given
+     * pages are rendered.
+     *
+     * Each thread renders with its own handle of the document, so the
+     * document must have been given an opener; otherwise the pages are
+     * rendered one by one.
+     *
+     * @param indexes The indexes of the pages to be rendered
+     * @param dpi Resolution in dpi
+     * @param threads The number of rendering threads
+     * @return The images of the pages, in the order of the indexes
+     * @throws IOException Thrown by PDFRenderer
+     */
+    public BufferedImage[] getPagesImage(int[] indexes, float dpi, int threads)
+            throws IOException {
+        BufferedImage[] pageImages = new BufferedImage[indexes.length];
+        if (threads <= 1 || this.opener == null) {
+            for (int i = 0; i < indexes.length; i++) {
+                pageImages[i] = this.getPageImage(indexes[i], dpi);
+            }
+            return pageImages;
+        }
+        try (var parallelRenderer = new ParallelRenderer(this, threads)) {
+            var pendingImages = new ArrayList<Future<BufferedImage>>(indexes.length);
+            for (int index : indexes) {
+                pendingImages.add(parallelRenderer.submit(index, dpi));
+            }
+            for (int i = 0; i < indexes.length; i++) {
+                pageImages[i] = Futures.getResult(pendingImages.get(i));
+            }
         }
         return pageImages;
     }
+
+    /**
+     * Renders all PDF pages and hands each image to the consumer.
+     *
+     * @param dpi Resolution in dpi
+     * @param threads The number of rendering threads
+     * @param consumer Receives the index and image of each page
+     * @throws IOException Thrown by PDFRenderer or the consumer
+     * @see #renderPages(int[], float, int, PageImageConsumer)
+     */
+    public void renderPages(float dpi, int threads, PageImageConsumer consumer)
+            throws IOException {
+        this.renderPages(this.getAllIndexes(), dpi, threads, consumer);
+    }
+
+    /**
+     * Renders the pages of the given indexes and hands each image to the
+     * consumer as soon as it is rendered, so the images can be released one
+     * by one instead of being kept for the whole document.
+     *
+     * The pages are rendered on the given number of threads. Each thread
+     * renders with its own handle of the document, so the document must
+     * have been given an opener; otherwise the pages are rendered one by one
+     * on the calling thread. With several threads the consumer is called
+     * from the rendering threads and not in page order.
+     *
+     * @param indexes The indexes of the pages to be rendered
+     * @param dpi Resolution in dpi
+     * @param threads The number of rendering threads
+     * @param consumer Receives the index and image of each page
+     * @throws IOException Thrown by PDFRenderer or the consumer
+     */
+    public void renderPages(int[] indexes, float dpi, int threads,
+            PageImageConsumer consumer) throws IOException {
+        if (threads <= 1 || this.opener == null) {
+            for (int index : indexes) {
+                consumer.accept(index, this.getPageImage(index, dpi));
+            }
+            return;
+        }
+        try (var parallelRenderer = new ParallelRenderer(this, threads)) {
+            parallelRenderer.renderPages(indexes, dpi, consumer);
+        }
+    }
+
+    /**
+     * Turns the rendered image of a page into a result, e.g. the encoded
+     * image, on a rendering thread.
+     *
+     * @param <T> The type of the result
+     */
+    @FunctionalInterface
+    public interface PageImageFunction<T> {
+        T apply(int index, BufferedImage image) throws IOException;
+    }
+
+    /**
+     * Receives the result of a page.
+     *
+     * @param <T> The type of the result
+     */
+    @FunctionalInterface
+    public interface PageResultConsumer<T> {
+        void accept(int index, T result) throws IOException;
+    }
+
+    /**
+     * Renders the pages of the given indexes and turns each image into a
+     * result on the rendering threads, while the calling thread hands the
+     * results to the consumer in the order of the indexes.
+     *
+     * At most two pages per thread are rendered ahead of the consumer, so
+     * memory does not grow with the number of pages even if the consumer is
+     * slower than the threads. Each thread renders with its own handle of
+     * the document, so the document must have been given an opener;
+     * otherwise every page is rendered and consumed in turn on the calling
+     * thread.
+     *
+     * @param <T> The type of the results
+     * @param indexes The indexes of the pages to be rendered
+     * @param dpi Resolution in dpi
+     * @param threads The number of rendering threads
+     * @param function Turns the image of a page into its result
+     * @param consumer Receives the index and result of each page, in order
+     * @throws IOException Thrown by PDFRenderer, the function or the consumer
+     */
+    public <T> void renderPagesInOrder(int[] indexes, float dpi, int threads,
+            PageImageFunction<T> function, PageResultConsumer<T> consumer)
+            throws IOException {
+        if (threads <= 1 || this.opener == null) {
+            for (int index : indexes) {
+                consumer.accept(index,
+                        function.apply(index, this.getPageImage(index, dpi)));
+            }
+            return;
+        }
+        try (var parallelRenderer = new ParallelRenderer(this, threads)) {
+            PDDocExtra.consumeInOrder(indexes, threads,
+                    index -> parallelRenderer.submit(index, dpi, function),
+                    consumer);
+        }
+    }
+
+    /**
+     * Works out the result of a page with a document handle owned by the
+     * current thread.
+     *
+     * @param <T> The type of the result
+     */
+    @FunctionalInterface
+    public interface PageFunction<T> {
+        T apply(PDDocExtra doc, int index) throws IOException;
+    }
+
+    /**
+     * Works out the result of each page of the given indexes on the given
+     * number of threads, while the calling thread hands the results to the
+     * consumer in the order of the indexes. At most two pages per thread are
+     * worked on ahead of the consumer.
+     *
+     * Each thread passes its own handle of the document to the function, so
+     * the document must have been given an opener; otherwise every page is
+     * worked on and consumed in turn on the calling thread with this
+     * document.
+     *
+     * @param <T> The type of the results
+     * @param indexes The indexes of the pages
+     * @param threads The number of threads
+     * @param function Works out the result of a page
+     * @param consumer Receives the index and result of each page, in order
+     * @throws IOException Thrown by the function or the consumer
+     */
+    public <T> void processPagesInOrder(int[] indexes, int threads,
+            PageFunction<T> function, PageResultConsumer<T> consumer)
+            throws IOException {
+        if (threads <= 1 || this.opener == null) {
+            for (int index : indexes) {
+                consumer.accept(index, function.apply(this, index));
+            }
+            return;
+        }
+        try (var parallelRenderer = new ParallelRenderer(this, threads)) {
+            PDDocExtra.consumeInOrder(indexes, threads,
+                    index -> parallelRenderer.submit(index, function),
+                    consumer);
+        }
+    }
+
+    /**
+     * Submits the pages to the worker threads, keeping at most two pages per
+     * thread in flight, and hands their results to the consumer in order.
+     */
+    private static <T> void consumeInOrder(int[] indexes, int threads,
+            IntFunction<Future<T>> submitter, PageResultConsumer<T> consumer)
+            throws IOException {
+        var pendingResults = new ArrayDeque<Future<T>>();
+        int submitted = 0;
+        for (int index : indexes) {
+            while (submitted < indexes.length
+                    && pendingResults.size() < threads * 2) {
+                pendingResults.add(submitter.apply(indexes[submitted++]));
+            }
+            consumer.accept(index,
+                    Futures.getResult(pendingResults.remove()));
+        }
+    }
+
+    /**
+     * Returns the indexes of all pages in the document, in page order.
+     */
+    private int[] getAllIndexes() {
+        int[] indexes = new int[this.getNumberOfPages()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = i;
+        }
+        return indexes;
+    }
+
+    /**
+     * Balances the page tree if pages have been appended since it was last
+     * balanced. Saving with save does this itself.
+     */
+    public void balancePageTree() {
+        if (this.pageTreeFlat) {
+            BalancedPageTree.rebuild(this);
+            this.pageTreeFlat = false;
+        }
+    }
+
+    /**
+     * Saves the document, balancing the page tree first if pages have been
+     * appended since it was last saved.
+     *
+     * @param output The stream the document is written to
+     * @throws IOException Error writing the document
+     */
+    @Override
+    public void save(OutputStream output) throws IOException {
+        this.balancePageTree();
+        super.save(output);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Closing the wrapped document also releases its file source
+        if (this.wrappedDoc != null) {
+            this.wrappedDoc.close();
+        }
+        super.close();
+    }
 }
@@ -0,0 +1,456 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A sequence of pages compiled from a page expression, stored as runs of
+ * evenly spaced page numbers, so a range of any length takes the same
+ * space and the pages are iterated without boxing.
+ *
+ * An expression is a list of terms separated by spaces or commas, whose
+ * pages follow each other in the order given:
+ * <ul>
+ * <li>a page: {@code 5}, {@code last}, or {@code r2} for the second last;
+ * <li>a range of pages, descending if the first page is after the last:
+ * {@code 3-7}, {@code 7-3}, {@code r10-last}, or {@code 1-last/2} for
+ * every second page;
+ * <li>{@code all}, {@code odd} or {@code even} pages.
+ * </ul>
+ * A term after {@code reverse} is reversed. A term after {@code except} is
+ * removed from the pages before it, and a term after {@code and} keeps only
+ * the pages before it that are also in the term, e.g.
+ * {@code "all except 3-5"}, {@code "1-100 and even"}.
+ *
+ * @author fearlesssniper
+ */
+public class PageSet {
+
+    private static final Pattern PAGE = Pattern.compile("\\d+|last|r\\d+");
+    private static final Pattern RANGE = Pattern.compile(
+            "(\\d+|last|r\\d+)-(\\d+|last|r\\d+)(?:/(\\d+))?");
+
+    private final int numberOfPages;
+    // Each run is its first page number, step and length
+    private int[] runs = new int[12];
+    private int runCount;
+    private int size;
+
+    private PageSet(int numberOfPages) {
+        this.numberOfPages = numberOfPages;
+    }
+
+    /**
+     * Thrown when a page expression is invalid.
+     */
+    public static class BadPageSetException extends Exception {
+        public BadPageSetException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Returns no pages of a document.
+     *
+     * @param numberOfPages The number of pages in the document
+     * @return The empty page set
+     */
+    public static PageSet none(int numberOfPages) {
+        return new PageSet(numberOfPages);
+    }
+
+    /**
+     * Returns all pages of a document in order.
+     *
+     * @param numberOfPages The number of pages in the document
+     * @return The page set of all pages
+     */
+    public static PageSet all(int numberOfPages) {
+        var pageSet = new PageSet(numberOfPages);
+        pageSet.append(1, 1, numberOfPages);
+        return pageSet;
+    }
+
+    /**
+     * Returns the given pages of a document in the order given.
+     *
+     * @param numberOfPages The number of pages in the document
+     * @param pageNumbers The page numbers, counting from 1
+     * @return The page set of the pages
+     * @throws BadPageSetException A page is out of range
+     */
+    public static PageSet of(int numberOfPages, int... pageNumbers)
+            throws BadPageSetException {
+        var pageSet = new PageSet(numberOfPages);
+        for (int pageNumber : pageNumbers) {
+            pageSet.checkPage(pageNumber);
+            pageSet.append(pageNumber, 1, 1);
+        }
+        return pageSet;
+    }
+
+    /**
+     * Compiles a page expression for a document.
+     *
+     * @param expression The page expression
+     * @param numberOfPages The number of pages in the document
+     * @return The pages of the expression
+     * @throws BadPageSetException The expression is invalid or a page is
+     * out of range
+     */
+    public static PageSet parse(String expression, int numberOfPages)
+            throws BadPageSetException {
+        PageSet pageSet = new PageSet(numberOfPages);
+        String operator = null;
+        boolean reverse = false;
+        for (String token : expression.trim().split("[, ]+")) {
+            String keyword = token.toLowerCase(Locale.ROOT);
+            if (keyword.isEmpty()) {
+                continue;
+            } else if (keyword.equals("reverse")) {
+                reverse = true;
+                continue;
+            } else if (keyword.equals("except") || keyword.equals("and")) {
+                if (operator != null || reverse || pageSet.runCount == 0) {
+                    throw new BadPageSetException(
+                            "'" + token + "' must be between two sets of pages");
+                }
+                operator = keyword;
+                continue;
+            }
+            PageSet term = new PageSet(numberOfPages);
+            if (PAGE.matcher(keyword).matches()) {
+                if (reverse) {
+                    throw new BadPageSetException(
+                            "'reverse' must be followed by 'odd', 'even', 'all'"
+                            + " or a range");
+                }
+                term.append(term.resolvePage(keyword), 1, 1);
+            } else if (keyword.equals("all")) {
+                term.append(1, 1, numberOfPages);
+            } else if (keyword.equals("odd")) {
+                term.append(1, 2, (numberOfPages + 1) / 2);
+            } else if (keyword.equals("even")) {
+                term.append(2, 2, numberOfPages / 2);
+            } else {
+                Matcher range = RANGE.matcher(keyword);
+                if (!range.matches()) {
+                    throw new BadPageSetException(
+                            "Unrecognized keyword \"" + token + "\"");
+                }
+                int first = term.resolvePage(range.group(1));
+                int last = term.resolvePage(range.group(2));
+                int step = range.group(3) == null
+                        ? 1 : parseNumber(range.group(3));
+                if (step < 1) {
+                    throw new BadPageSetException(
+                            "The step of " + token + " must be positive");
+                }
+                term.append(first, first <= last ? step : -step,
+                        Math.abs(last - first) / step + 1);
+            }
+            if (reverse) {
+                term = term.reversed();
+            }
+            if (operator == null) {
+                pageSet = pageSet.union(term);
+            } else if (operator.equals("except")) {
+                pageSet = pageSet.subtract(term);
+            } else {
+                pageSet = pageSet.intersect(term);
+            }
+            operator = null;
+            reverse = false;
+        }
+        if (reverse) {
+            throw new BadPageSetException(
+                    "'reverse' must be followed by 'odd', 'even', 'all' or a range");
+        }
+        if (operator != null) {
+            throw new BadPageSetException(
+                    "'" + operator + "' must be between two sets of pages");
+        }
+        return pageSet;
+    }
+
+    private static int parseNumber(String number) throws BadPageSetException {
+        try {
+            return Integer.parseInt(number);
+        } catch (NumberFormatException e) {
+            throw new BadPageSetException("The number " + number + " is too large");
+        }
+    }
+
+    /**
+     * Returns the page number of a page in an expression.
+     */
+    private int resolvePage(String page) throws BadPageSetException {
+        int pageNumber;
+        if (page.equals("last")) {
+            pageNumber = this.numberOfPages;
+        } else if (page.startsWith("r")) {
+            pageNumber = this.numberOfPages - parseNumber(page.substring(1)) + 1;
+            if (pageNumber < 1 || pageNumber > this.numberOfPages) {
+                throw new BadPageSetException("Page " + page + " is out of range,"
+                        + " the document has " + this.numberOfPages + " pages");
+            }
+        } else {
+            pageNumber = parseNumber(page);
+        }
+        this.checkPage(pageNumber);
+        return pageNumber;
+    }
+
+    private void checkPage(int pageNumber) throws BadPageSetException {
+        if (pageNumber < 1 || pageNumber > this.numberOfPages) {
+            throw new BadPageSetException("Page " + pageNumber + " is out of range,"
+                    + " the document has " + this.numberOfPages + " pages");
+        }
+    }
+
+    /**
+     * Appends a run of pages, extending the last run if the pages continue
+     * it.
+     */
+    private void append(int first, int step, int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (this.runCount > 0) {
+            int last = (this.runCount - 1) * 3;
+            int lastFirst = this.runs[last];
+            int lastStep = this.runs[last + 1];
+            int lastLength = this.runs[last + 2];
+            if (lastLength == 1 && first != lastFirst
+                    && (length == 1 || step == first - lastFirst)) {
+                // A single page takes the step to the pages after it
+                lastStep = first - lastFirst;
+                this.runs[last + 1] = lastStep;
+            }
+            if (lastStep == step || length == 1) {
+                if (lastFirst + lastStep * lastLength == first) {
+                    this.runs[last + 2] += length;
+                    this.size += length;
+                    return;
+                }
+            }
+        }
+        if (this.runs.length == this.runCount * 3) {
+            this.runs = Arrays.copyOf(this.runs, this.runs.length * 2);
+        }
+        int run = this.runCount * 3;
+        this.runs[run] = first;
+        this.runs[run + 1] = step;
+        this.runs[run + 2] = length;
+        this.runCount++;
+        this.size += length;
+    }
+
+    /**
+     * Returns the number of pages in the sequence, counting a page given
+     * twice twice.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the number of pages in the document of the sequence.
+     */
+    public int getNumberOfPages() {
+        return this.numberOfPages;
+    }
+
+    /**
+     * Passes the zero-based indexes of the pages to the action, in order.
+     *
+     * @param action Receives the index of each page
+     */
+    public void forEachIndex(IntConsumer action) {
+        for (int run = 0; run < this.runCount * 3; run += 3) {
+            int index = this.runs[run] - 1;
+            int step = this.runs[run + 1];
+            for (int i = 0; i < this.runs[run + 2]; i++, index += step) {
+                action.accept(index);
+            }
+        }
+    }
+
+    /**
+     * Returns the zero-based indexes of the pages, in order.
+     *
+     * @return The indexes of the pages
+     */
+    public int[] toIndexes() {
+        var indexes = new int[this.size];
+        int i = 0;
+        for (int run = 0; run < this.runCount * 3; run += 3) {
+            int index = this.runs[run] - 1;
+            int step = this.runs[run + 1];
+            for (int j = 0; j < this.runs[run + 2]; j++, index += step) {
+                indexes[i++] = index;
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns the set of the zero-based indexes of the pages.
+     *
+     * @return The set of indexes
+     */
+    public BitSet toIndexSet() {
+        var indexSet = new BitSet(this.numberOfPages);
+        for (int run = 0; run < this.runCount * 3; run += 3) {
+            int first = this.runs[run] - 1;
+            int step = this.runs[run + 1];
+            int length = this.runs[run + 2];
+            if (step == 1) {
+                indexSet.set(first, first + length);
+            } else {
+                for (int i = 0, index = first; i < length; i++, index += step) {
+                    indexSet.set(index);
+                }
+            }
+        }
+        return indexSet;
+    }
+
+    /**
+     * Returns the pages of this sequence followed by the pages of the other.
+     *
+     * @param other The pages to be appended
+     * @return The joined sequence
+     */
+    public PageSet union(PageSet other) {
+        var result = this.copy();
+        for (int run = 0; run < other.runCount * 3; run += 3) {
+            result.append(other.runs[run], other.runs[run + 1], other.runs[run + 2]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the pages of this sequence that are not in the other, in the
+     * order of this sequence.
+     *
+     * @param other The pages to be removed
+     * @return The remaining pages
+     */
+    public PageSet subtract(PageSet other) {
+        return this.filter(other.toIndexSet(), false);
+    }
+
+    /**
+     * Returns the pages of this sequence that are also in the other, in the
+     * order of this sequence.
+     *
+     * @param other The pages to be kept
+     * @return The pages in both sequences
+     */
+    public PageSet intersect(PageSet other) {
+        return this.filter(other.toIndexSet(), true);
+    }
+
+    /**
+     * Returns the pages of this sequence in reverse order.
+     *
+     * @return The reversed sequence
+     */
+    public PageSet reversed() {
+        var result = new PageSet(this.numberOfPages);
+        for (int run = (this.runCount - 1) * 3; run >= 0; run -= 3) {
+            int step = this.runs[run + 1];
+            int length = this.runs[run + 2];
+            result.append(this.runs[run] + step * (length - 1), -step, length);
+        }
+        return result;
+    }
+
+    private PageSet copy() {
+        var result = new PageSet(this.numberOfPages);
+        result.runs = Arrays.copyOf(this.runs, Math.max(this.runCount * 3, 12));
+        result.runCount = this.runCount;
+        result.size = this.size;
+        return result;
+    }
+
+    /**
+     * Returns the pages whose index is in the set if kept, or not in it if
+     * not kept.
+     */
+    private PageSet filter(BitSet indexSet, boolean keep) {
+        var result = new PageSet(this.numberOfPages);
+        for (int run = 0; run < this.runCount * 3; run += 3) {
+            int step = this.runs[run + 1];
+            int length = this.runs[run + 2];
+            // The kept pages of a run are appended in pieces of the run
+            int pieceFirst = 0;
+            int pieceLength = 0;
+            for (int i = 0, page = this.runs[run]; i < length; i++, page += step) {
+                if (indexSet.get(page - 1) == keep) {
+                    if (pieceLength == 0) {
+                        pieceFirst = page;
+                    }
+                    pieceLength++;
+                } else {
+                    result.append(pieceFirst, step, pieceLength);
+                    pieceLength = 0;
+                }
+            }
+            result.append(pieceFirst, step, pieceLength);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the compiled form of the sequence, e.g. "1-9/2 12".
+     */
+    @Override
+    public String toString() {
+        var string = new StringBuilder();
+        for (int run = 0; run < this.runCount * 3; run += 3) {
+            int first = this.runs[run];
+            int step = this.runs[run + 1];
+            int length = this.runs[run + 2];
+            if (string.length() > 0) {
+                string.append(' ');
+            }
+            string.append(first);
+            if (length > 1) {
+                string.append('-').append(first + step * (length - 1));
+                if (Math.abs(step) != 1) {
+                    string.append('/').append(Math.abs(step));
+                }
+            }
+        }
+        return string.toString();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDFontDescriptor;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+
+/**
+ * Extracts the text of a page as lines with their positions on the page,
+ * and the text of each line as runs of the same font.
+ *
+ * A new extractor should be used for each thread, as PDFTextStripper is
+ * not thread-safe.
+ *
+ * @author fearlesssniper
+ */
+public class PageTextExtractor extends PDFTextStripper {
+
+    /**
+     * A line of text on a page.
+     */
+    public static class Line {
+        /**
+         * The distance of the start of the line from the left edge of the
+         * page in points.
+         */
+        public final float x;
+        /**
+         * The distance of the baseline from the top edge of the page in
+         * points.
+         */
+        public final float baseline;
+        public final List<Run> runs = new ArrayList<>();
+
+        Line(float x, float baseline) {
+            this.x = x;
+            this.baseline = baseline;
+        }
+
+        /**
+         * Returns the size of the largest font in the line in points.
+         *
+         * @return The font size
+         */
+        public float getFontSize() {
+            float fontSize = 0;
+            for (var run : this.runs) {
+                fontSize = Math.max(fontSize, run.fontSize);
+            }
+            return fontSize;
+        }
+    }
+
+    /**
+     * Text in the same font.
+     */
+    public static class Run {
+        public final String fontName;
+        public final float fontSize;
+        public final boolean bold;
+        public final boolean italic;
+        private final StringBuilder text = new StringBuilder();
+
+        Run(String fontName, float fontSize, boolean bold, boolean italic) {
+            this.fontName = fontName;
+            this.fontSize = fontSize;
+            this.bold = bold;
+            this.italic = italic;
+        }
+
+        public String getText() {
+            return this.text.toString();
+        }
+
+        private boolean hasStyleOf(Run other) {
+            return this.fontName.equals(other.fontName)
+                    && this.fontSize == other.fontSize
+                    && this.bold == other.bold && this.italic == other.italic;
+        }
+    }
+
+    private List<Line> lines;
+    private Line currentLine;
+
+    /**
+     * Creates an extractor that reads the text in the order it appears on
+     * the page.
+     *
+     * @throws IOException Thrown by PDFTextStripper
+     */
+    public PageTextExtractor() throws IOException {
+        super();
+        this.setSortByPosition(true);
+    }
+
+    /**
+     * Returns the lines of text of the page of the given index, from the
+     * top of the page to the bottom.
+     *
+     * @param doc The document of the page
+     * @param index The index of the page
+     * @return The lines of the page
+     * @throws IOException Error reading the content of the page
+     */
+    public List<Line> getLines(PDDocument doc, int index) throws IOException {
+        this.lines = new ArrayList<>();
+        this.currentLine = null;
+        this.setStartPage(index + 1);
+        this.setEndPage(index + 1);
+        this.writeText(doc, Writer.nullWriter());
+        return this.lines;
+    }
+
+    @Override
+    protected void writeString(String text, List<TextPosition> textPositions)
+            throws IOException {
+        if (textPositions.isEmpty()) {
+            return;
+        }
+        TextPosition first = textPositions.get(0);
+        if (this.currentLine == null) {
+            this.currentLine = new Line(first.getXDirAdj(), first.getYDirAdj());
+            this.lines.add(this.currentLine);
+        }
+        // A word takes the font of its first character
+        PDFont font = first.getFont();
+        PDFontDescriptor descriptor = font.getFontDescriptor();
+        String fontName = getFontFamily(font);
+        String lowerName = font.getName() == null ? "" : font.getName().toLowerCase();
+        boolean bold = lowerName.contains("bold")
+                || (descriptor != null && (descriptor.isForceBold()
+                        || descriptor.getFontWeight() >= 700));
+        boolean italic = lowerName.contains("italic") || lowerName.contains("oblique")
+                || (descriptor != null && descriptor.isItalic());
+        // Rounded to half points, the unit of font sizes in Word
+        float fontSize = Math.round(first.getFontSizeInPt() * 2) / 2f;
+        var run = new Run(fontName, fontSize, bold, italic);
+        List<Run> runs = this.currentLine.runs;
+        if (!runs.isEmpty() && runs.get(runs.size() - 1).hasStyleOf(run)) {
+            run = runs.get(runs.size() - 1);
+        } else {
+            runs.add(run);
+        }
+        run.text.append(text);
+    }
+
+    @Override
+    protected void writeWordSeparator() {
+        if (this.currentLine != null && !this.currentLine.runs.isEmpty()) {
+            List<Run> runs = this.currentLine.runs;
+            runs.get(runs.size() - 1).text.append(' ');
+        }
+    }
+
+    @Override
+    protected void writeLineSeparator() {
+        this.currentLine = null;
+    }
+
+    /**
+     * Returns the name of the font without the subset prefix and the style,
+     * e.g. Arial for ABCDEF+Arial-BoldMT.
+     */
+    private static String getFontFamily(PDFont font) {
+        String name = font.getName();
+        if (name == null) {
+            return "";
+        }
+        int subsetEnd = name.indexOf('+');
+        if (subsetEnd == 6) {
+            name = name.substring(subsetEnd + 1);
+        }
+        int styleStart = name.indexOf('-');
+        if (styleStart < 0) {
+            styleStart = name.indexOf(',');
+        }
+        if (styleStart > 0) {
+            name = name.substring(0, styleStart);
+        }
+        return name.endsWith("MT") ? name.substring(0, name.length() - 2) : name;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.util;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Renders the pages of a PDF document on several threads.
+ *
+ * PDFBox documents are not thread-safe, so every worker thread opens its own
+ * handle of the document and renders with its own renderer.
+ *
+ * @author fearlesssniper
+ */
+public class ParallelRenderer implements Closeable {
+
+    /**
+     * Opens a new handle of the document to be rendered.
+     */
+    @FunctionalInterface
+    public interface DocumentOpener {
+        PDDocument open() throws IOException;
+    }
+
+    private final PDDocExtra parentDoc;
+    private final ExecutorService executor;
+    private final ThreadLocal<PDDocExtra> threadDoc = new ThreadLocal<>();
+    // Every handle opened by the workers, closed with the renderer
+    private final List<PDDocExtra> openedDocs
+            = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Creates a renderer for a document that has been given an opener.
+     *
+     * @param parentDoc The document to be rendered
+     * @param threads The number of rendering threads
+     */
+    public ParallelRenderer(PDDocExtra parentDoc, int threads) {
+        this.parentDoc = parentDoc;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Returns the document handle of the current worker thread, opening one
+     * if the thread has not rendered anything yet.
+     */
+    private PDDocExtra getThreadDoc() throws IOException {
+        PDDocExtra doc = this.threadDoc.get();
+        if (doc == null) {
+            doc = this.parentDoc.openHandle();
+            this.threadDoc.set(doc);
+            this.openedDocs.add(doc);
+        }
+        return doc;
+    }
+
+    /**
+     * Schedules the page of the given index to be rendered.
+     *
+     * @param index The index of the page to be rendered
+     * @param dpi Resolution in dpi
+     * @return The pending image of the page
+     */
+    public Future<BufferedImage> submit(int index, float dpi) {
+        return this.executor.submit(() -> this.renderPage(index, dpi));
+    }
+
+    /**
+     * Schedules the page of the given index to be rendered and its image to
+     * be turned into a result on the same worker thread.
+     *
+     * @param <T> The type of the result
+     * @param index The index of the page to be rendered
+     * @param dpi Resolution in dpi
+     * @param function Turns the image of the page into the result
+     * @return The pending result of the page
+     */
+    public <T> Future<T> submit(int index, float dpi,
+            PDDocExtra.PageImageFunction<T> function) {
+        return this.executor.submit(
+                () -> function.apply(index, this.renderPage(index, dpi)));
+    }
+
+    /**
+     * Schedules the function to work out the result of the page of the
+     * given index with the document handle of a worker thread.
+     *
+     * @param <T> The type of the result
+     * @param index The index of the page
+     * @param function Works out the result of the page
+     * @return The pending result of the page
+     */
+    public <T> Future<T> submit(int index, PDDocExtra.PageFunction<T> function) {
+        return this.executor.submit(
+                () -> function.apply(this.getThreadDoc(), index));
+    }
+
+    /**
+     * Renders a page on the current worker thread. A cached page is returned
+     * without opening a document handle for the thread.
+     */
+    private BufferedImage renderPage(int index, float dpi) throws IOException {
+        BufferedImage image = this.parentDoc.getCachedPageImage(index, dpi);
+        if (image == null) {
+            image = this.getThreadDoc().getPageImage(index, dpi);
+        }
+        return image;
+    }
+
+    /**
+     * Renders the pages of the given indexes and hands each image to the
+     * consumer on the rendering thread, so encoding and writing run in
+     * parallel too.
+     *
+     * Pages waiting for a thread hold no image, so at most one image per
+     * thread is in memory at a time. The consumer is not called in the
+     * order of the indexes.
+     *
+     * @param indexes The indexes of the pages to be rendered
+     * @param dpi Resolution in dpi
+     * @param consumer Receives the index and image of each page
+     * @throws IOException Thrown by PDFRenderer or the consumer
+     */
+    public void renderPages(int[] indexes, float dpi,
+            PDDocExtra.PageImageConsumer consumer) throws IOException {
+        var pendingPages = new ArrayList<Future<Void>>(indexes.length);
+        for (int index : indexes) {
+            pendingPages.add(this.executor.submit(() -> {
+                consumer.accept(index, this.renderPage(index, dpi));
+                return null;
+            }));
+        }
+        for (var pendingPage : pendingPages) {
+            Futures.getResult(pendingPage);
+        }
+    }
+
+    /**
+     * Runs the task for the pages of the given indexes, passing the document
+     * handle of the worker thread to the task.
+     *
+     * @param indexes The indexes of the pages
+     * @param task The task run for each page
+     * @throws IOException Thrown by the task
+     */
+    public void forEachPage(int[] indexes, PDDocExtra.PageTask task)
+            throws IOException {
+        var pendingPages = new ArrayList<Future<Void>>(indexes.length);
+        for (int index : indexes) {
+            pendingPages.add(this.executor.submit(() -> {
+                task.run(this.getThreadDoc(), index);
+                return null;
+            }));
+        }
+        for (var pendingPage : pendingPages) {
+            Futures.getResult(pendingPage);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.executor.shutdownNow();
+        try {
+            this.executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Every handle is closed even if one fails, so none keeps its file
+        // or scratch file open
+        IOException closeException = null;
+        for (var doc : this.openedDocs) {
+            try {
+                doc.close();
+            } catch (IOException e) {
+                if (closeException == null) {
+                    closeException = e;
+                } else {
+                    closeException.addSuppressed(e);
+                }
+            }
+        }
+        if (closeException != null) {
+            throw closeException;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.apache.pdfbox.rendering.ImageType;
+
+/**
+ * An on-disk cache of rendered pages, keyed by the content hash of the
+ * document, the page index, the resolution and the image type.
+ *
+ * The rasters are stored deflated at the fastest level, as reading them back
+ * must be cheaper than rendering the page again. When the cache grows beyond
+ * its maximum size, the least recently used pages are removed; the last
+ * modified time of an entry is its last use.
+ *
+ * @author fearlesssniper
+ */
+public class RenderCache {
+
+    private static final int MAGIC = 0x50555243; // "PURC"
+    private static final String SUFFIX = ".raster";
+
+    private final File cacheDir;
+    private final long maxSize;
+    private final AtomicLong currentSize = new AtomicLong();
+
+    /**
+     * Opens the cache in the given directory, creating it if needed.
+     *
+     * @param cacheDir The directory the rendered pages are stored in
+     * @param maxSize The maximum total size of the cache in bytes
+     * @throws IOException The directory cannot be created
+     */
+    public RenderCache(File cacheDir, long maxSize) throws IOException {
+        this.cacheDir = cacheDir;
+        this.maxSize = maxSize;
+        Files.createDirectories(cacheDir.toPath());
+        for (var entry : this.listEntries()) {
+            this.currentSize.addAndGet(entry.length());
+        }
+        if (this.currentSize.get() > this.maxSize) {
+            this.evict();
+        }
+    }
+
+    /**
+     * Returns the SHA-256 hash of the content of a file in hex, which is
+     * used to identify the document in the cache.
+     *
+     * @param file The file to be hashed
+     * @return The hash in hex
+     * @throws IOException The file cannot be read
+     */
+    public static String hashFile(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        var hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private File getEntry(String documentHash, int index, float dpi,
+            ImageType imageType) {
+        return new File(this.cacheDir, documentHash + "_" + index + "_" + dpi
+                + "_" + imageType + SUFFIX);
+    }
+
+    private File[] listEntries() {
+        File[] entries = this.cacheDir.listFiles(
+                (dir, name) -> name.endsWith(SUFFIX));
+        return entries == null ? new File[0] : entries;
+    }
+
+    /**
+     * Returns the cached image of a page, or null if it is not cached.
+     *
+     * @param documentHash The content hash of the document
+     * @param index The index of the page
+     * @param dpi Resolution in dpi
+     * @param imageType The type of the rendered image
+     * @return The cached image or null
+     */
+    public BufferedImage get(String documentHash, int index, float dpi,
+            ImageType imageType) {
+        File entry = this.getEntry(documentHash, index, dpi, imageType);
+        if (!entry.isFile()) {
+            return null;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new FileInputStream(entry))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a cached page: " + entry);
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            int type = in.readInt();
+            var image = new BufferedImage(width, height, type);
+            DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+            if (dataBuffer instanceof DataBufferInt) {
+                int[] data = ((DataBufferInt) dataBuffer).getData();
+                var buffer = ByteBuffer.allocate(64 * 1024);
+                for (int i = 0; i < data.length;) {
+                    int count = Math.min(data.length - i, buffer.capacity() / 4);
+                    in.readFully(buffer.array(), 0, count * 4);
+                    buffer.clear();
+                    buffer.asIntBuffer().get(data, i, count);
+                    i += count;
+                }
+            } else {
+                in.readFully(((DataBufferByte) dataBuffer).getData());
+            }
+            entry.setLastModified(System.currentTimeMillis());
+            return image;
+        } catch (IOException e) {
+            // A broken entry is treated as missing and rendered again
+            entry.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the image of a page, removing the least recently used pages if
+     * the cache grows beyond its maximum size. Images of a type that cannot
+     * be stored are ignored.
+     *
+     * @param documentHash The content hash of the document
+     * @param index The index of the page
+     * @param dpi Resolution in dpi
+     * @param imageType The type of the rendered image
+     * @param image The rendered image
+     * @throws IOException The image cannot be written to the cache
+     */
+    public void put(String documentHash, int index, float dpi,
+            ImageType imageType, BufferedImage image) throws IOException {
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        if (image.getType() == BufferedImage.TYPE_CUSTOM
+                || dataBuffer.getNumBanks() != 1
+                || !(dataBuffer instanceof DataBufferInt
+                     || dataBuffer instanceof DataBufferByte)) {
+            return;
+        }
+        File entry = this.getEntry(documentHash, index, dpi, imageType);
+        // Written to a temporary file first so a reader never sees half of it
+        File tempFile = File.createTempFile("page", ".tmp", this.cacheDir);
+        try {
+            var deflater = new Deflater(Deflater.BEST_SPEED);
+            try (var out = new DataOutputStream(new BufferedOutputStream(
+                    new DeflaterOutputStream(new FileOutputStream(tempFile), deflater)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(image.getWidth());
+                out.writeInt(image.getHeight());
+                out.writeInt(image.getType());
+                if (dataBuffer instanceof DataBufferInt) {
+                    int[] data = ((DataBufferInt) dataBuffer).getData();
+                    var buffer = ByteBuffer.allocate(64 * 1024);
+                    for (int i = 0; i < data.length;) {
+                        int count = Math.min(data.length - i, buffer.capacity() / 4);
+                        buffer.clear();
+                        buffer.asIntBuffer().put(data, i, count);
+                        out.write(buffer.array(), 0, count * 4);
+                        i += count;
+                    }
+                } else {
+                    out.write(((DataBufferByte) dataBuffer).getData());
+                }
+            } finally {
+                deflater.end();
+            }
+            long oldSize = entry.length();
+            Files.move(tempFile.toPath(), entry.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            this.currentSize.addAndGet(entry.length() - oldSize);
+        } finally {
+            tempFile.delete();
+        }
+        if (this.currentSize.get() > this.maxSize) {
+            this.evict();
+        }
+    }
+
+    /**
+     * Removes the least recently used pages until the cache fits in its
+     * maximum size.
+     */
+    private synchronized void evict() {
+        File[] entries = this.listEntries();
+        // The times and sizes are read once, as the entries read by other
+        // workers are touched while they are sorted
+        long[] lastUsed = new long[entries.length];
+        long[] lengths = new long[entries.length];
+        Integer[] order = new Integer[entries.length];
+        long size = 0;
+        for (int i = 0; i < entries.length; i++) {
+            lastUsed[i] = entries[i].lastModified();
+            lengths[i] = entries[i].length();
+            order[i] = i;
+            size += lengths[i];
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> lastUsed[i]));
+        for (int i = 0; i < order.length && size > this.maxSize; i++) {
+            if (entries[order[i]].delete()) {
+                size -= lengths[order[i]];
+                // Pages stored meanwhile are counted by their own put
+                this.currentSize.addAndGet(-lengths[order[i]]);
+            }
+        }
+    }
+}
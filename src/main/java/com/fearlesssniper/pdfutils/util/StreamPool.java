@@ -0,0 +1,228 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+
+/**
+ * The streams copied into a document, by the hash of their raw data and
+ * dictionary, so a stream copied from many source documents, such as a
+ * font or a logo, is stored only once. Font, font descriptor, encoding and
+ * graphics state dictionaries are shared the same way, as the width arrays
+ * of a font can be larger than its data.
+ *
+ * Dictionaries and arrays in a stream dictionary are hashed by their
+ * content, and streams they refer to by their identity. Streams referred to
+ * are copied and shared first, so an image whose soft mask is shared can be
+ * shared too.
+ *
+ * @author fearlesssniper
+ */
+public class StreamPool {
+
+    // The dictionaries that may be shared, by their type
+    private static final Set<COSName> SHARED_TYPES = Set.of(COSName.FONT,
+            COSName.FONT_DESC, COSName.ENCODING, COSName.EXT_G_STATE);
+
+    private final Map<ByteBuffer, COSStream> streams = new HashMap<>();
+    private final Map<ByteBuffer, COSDictionary> dictionaries = new HashMap<>();
+    // Numbers identifying the streams referred to by stream dictionaries
+    private final Map<COSBase, Integer> streamIds = new IdentityHashMap<>();
+
+    /**
+     * Returns a new digest for the raw data of a stream to be shared.
+     *
+     * @return A SHA-256 digest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the stream in the pool equal to the given copied stream, or
+     * adds the stream to the pool if it is the first of its kind.
+     *
+     * A stream referring to an object that is still being copied is neither
+     * shared nor added, as the object may not be complete yet.
+     *
+     * @param stream The copied stream, with its dictionary set
+     * @param dataDigest The digest the raw data of the stream was fed to
+     * @param pending The copies that are not complete yet
+     * @return The shared stream, which is the given stream if it is new
+     */
+    public COSStream share(COSStream stream, MessageDigest dataDigest,
+            Set<COSBase> pending) {
+        var visited = Collections.newSetFromMap(new IdentityHashMap<COSBase, Boolean>());
+        if (!this.updateDigest(dataDigest, stream, pending, visited)) {
+            return stream;
+        }
+        var key = ByteBuffer.wrap(dataDigest.digest());
+        COSStream shared = this.streams.putIfAbsent(key, stream);
+        return shared == null ? stream : shared;
+    }
+
+    /**
+     * Returns whether a copied dictionary that is not a stream is of a type
+     * that may be shared. Other dictionaries, such as pages and
+     * annotations, belong to one place in the document.
+     *
+     * @param dict The copied dictionary
+     * @return Whether the dictionary may be shared
+     */
+    public static boolean isShareable(COSDictionary dict) {
+        COSName type = dict.getCOSName(COSName.TYPE);
+        return !(dict instanceof COSStream) && type != null
+                && SHARED_TYPES.contains(type);
+    }
+
+    /**
+     * Returns the dictionary in the pool equal to the given copied
+     * dictionary, or adds the dictionary to the pool if it is the first of
+     * its kind.
+     *
+     * @param dict The copied dictionary, which must be shareable
+     * @param pending The copies that are not complete yet
+     * @return The shared dictionary, which is the given one if it is new
+     */
+    public COSDictionary share(COSDictionary dict, Set<COSBase> pending) {
+        MessageDigest digest = newDigest();
+        var visited = Collections.newSetFromMap(new IdentityHashMap<COSBase, Boolean>());
+        if (!this.updateDigest(digest, dict, pending, visited)) {
+            return dict;
+        }
+        var key = ByteBuffer.wrap(digest.digest());
+        COSDictionary shared = this.dictionaries.putIfAbsent(key, dict);
+        return shared == null ? dict : shared;
+    }
+
+    /**
+     * Feeds the dictionary of a stream to the digest.
+     *
+     * @return False if the stream refers to a pending object
+     */
+    private boolean updateDigest(MessageDigest digest, COSStream stream,
+            Set<COSBase> pending, Set<COSBase> visited) {
+        // The entries are hashed in the order of their names
+        var entries = new TreeMap<String, COSBase>();
+        for (Map.Entry<COSName, COSBase> entry : stream.entrySet()) {
+            if (!COSName.LENGTH.equals(entry.getKey())) {
+                entries.put(entry.getKey().getName(), entry.getValue());
+            }
+        }
+        return this.updateDigest(digest, entries, pending, visited);
+    }
+
+    private boolean updateDigest(MessageDigest digest,
+            Map<String, COSBase> entries, Set<COSBase> pending,
+            Set<COSBase> visited) {
+        this.update(digest, "<<");
+        for (Map.Entry<String, COSBase> entry : entries.entrySet()) {
+            this.update(digest, "/" + entry.getKey() + " ");
+            if (!this.updateDigest(digest, entry.getValue(), pending, visited)) {
+                return false;
+            }
+        }
+        this.update(digest, ">>");
+        return true;
+    }
+
+    /**
+     * Feeds a value of a stream dictionary to the digest.
+     *
+     * @return False if the value refers to a pending object
+     */
+    private boolean updateDigest(MessageDigest digest, COSBase base,
+            Set<COSBase> pending, Set<COSBase> visited) {
+        if (pending.contains(base)) {
+            return false;
+        }
+        if (base instanceof COSStream) {
+            Integer id = this.streamIds.get(base);
+            if (id == null) {
+                id = this.streamIds.size();
+                this.streamIds.put(base, id);
+            }
+            this.update(digest, "@" + id + " ");
+        } else if (base instanceof COSDictionary || base instanceof COSArray) {
+            if (!visited.add(base)) {
+                // Objects referring back to themselves are not shared
+                return false;
+            }
+            boolean complete;
+            if (base instanceof COSDictionary) {
+                var entries = new TreeMap<String, COSBase>();
+                for (Map.Entry<COSName, COSBase> entry
+                        : ((COSDictionary) base).entrySet()) {
+                    entries.put(entry.getKey().getName(), entry.getValue());
+                }
+                complete = this.updateDigest(digest, entries, pending, visited);
+            } else {
+                this.update(digest, "[");
+                complete = true;
+                for (COSBase item : (COSArray) base) {
+                    complete = complete
+                            && this.updateDigest(digest, item, pending, visited);
+                }
+                this.update(digest, "]");
+            }
+            visited.remove(base);
+            return complete;
+        } else if (base instanceof COSName) {
+            this.update(digest, "/" + ((COSName) base).getName() + " ");
+        } else if (base instanceof COSString) {
+            this.update(digest, "(" + ((COSString) base).toHexString() + ") ");
+        } else if (base == null || base instanceof COSNull) {
+            this.update(digest, "null ");
+        } else {
+            // Numbers and booleans
+            this.update(digest, base + " ");
+        }
+        return true;
+    }
+
+    private void update(MessageDigest digest, String token) {
+        digest.update(token.getBytes(StandardCharsets.UTF_8));
+    }
+}
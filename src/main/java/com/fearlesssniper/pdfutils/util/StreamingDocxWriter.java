@@ -0,0 +1,455 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a Word document with one picture or the text of one PDF page per
+ * page straight into a zip stream, without building the document in memory
+ * like XWPFDocument does.
+ *
+ * Every picture is written to the zip as soon as its page is added, so only
+ * the text of the document body, about a kilobyte per page, is kept until
+ * the document is finished. The body, the relationships and the content
+ * types are written when the document is finished; a document closed
+ * without being finished is left incomplete.
+ *
+ * Consecutive pages of the same size share one section, so a section break
+ * is only written where the page size changes; Word is slow to open
+ * documents with a section per page.
+ *
+ * @author fearlesssniper
+ */
+public class StreamingDocxWriter implements Closeable {
+
+    /**
+     * Writes the encoded picture of a page to the stream.
+     */
+    @FunctionalInterface
+    public interface PictureWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * An encoded picture with the SHA-256 hash of its content, so identical
+     * pictures are stored only once. Hashing is done when the picture is
+     * created, which may be on another thread than the writer.
+     */
+    public static class Picture {
+        private final ByteArrayOutputStream data;
+        private final ByteBuffer hash;
+
+        /**
+         * Wraps the encoded picture without copying it.
+         *
+         * @param data The encoded picture
+         * @throws IOException Error reading the picture
+         */
+        public Picture(ByteArrayOutputStream data) throws IOException {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform is required to support SHA-256
+                throw new IllegalStateException(e);
+            }
+            data.writeTo(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+            this.data = data;
+            this.hash = ByteBuffer.wrap(digest.digest());
+        }
+    }
+
+    private static final String W_NS
+            = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final String R_NS
+            = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String REL_NS
+            = "http://schemas.openxmlformats.org/package/2006/relationships";
+    private static final String IMAGE_REL
+            = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/image";
+    private static final String DOCUMENT_REL
+            = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument";
+    private static final int EMU_PER_POINT = 12700;
+
+    private final OutputStream out;
+    private final ZipOutputStream zip;
+    private final StringBuilder body = new StringBuilder();
+    // The file names of the pictures in word/media, in order of their ids
+    private final List<String> pictureNames = new ArrayList<>();
+    // The ids of the stored pictures by the hash of their content
+    private final Map<ByteBuffer, Integer> pictureIds = new HashMap<>();
+    private int pageCount;
+    // The size of the last added page in twips, written when a page of
+    // another size is added or the document is closed
+    private int lastPageWidth;
+    private int lastPageHeight;
+    // Where the section properties go in the body if the section ends with
+    // the last added page
+    private int sectionPropertiesPosition;
+    // Whether the next paragraph starts a new page in the same section
+    private boolean pageBreakPending;
+    private boolean closed;
+
+    /**
+     * Starts a document written to the stream. The stream is closed with
+     * the document.
+     *
+     * @param out The stream of the docx file
+     */
+    public StreamingDocxWriter(OutputStream out) {
+        this.out = out;
+        this.zip = new ZipOutputStream(out);
+    }
+
+    /**
+     * Adds a page with a picture filling the whole page. If the same
+     * picture has been added before, the page shows the stored picture
+     * instead of storing it again, e.g. for blank or repeated pages.
+     *
+     * @param widthPoints The width of the page in points
+     * @param heightPoints The height of the page in points
+     * @param pictureExtension The file extension of the picture, jpg or png
+     * @param name The name of the picture shown in Word
+     * @param picture The encoded picture
+     * @throws IOException Error writing the picture
+     */
+    public void addPicturePage(float widthPoints, float heightPoints,
+            String pictureExtension, String name, Picture picture)
+            throws IOException {
+        Integer pictureId = this.pictureIds.get(picture.hash);
+        if (pictureId == null) {
+            pictureId = this.writePicture(pictureExtension, picture.data::writeTo);
+            this.pictureIds.put(picture.hash, pictureId);
+        }
+        this.addPage(widthPoints, heightPoints, name, pictureId);
+    }
+
+    /**
+     * Adds a page with a picture filling the whole page. The picture is
+     * written straight into the document and always stored as a new picture.
+     *
+     * @param widthPoints The width of the page in points
+     * @param heightPoints The height of the page in points
+     * @param pictureExtension The file extension of the picture, jpg or png
+     * @param name The name of the picture shown in Word
+     * @param pictureWriter Writes the encoded picture
+     * @throws IOException Error writing the picture
+     */
+    public void addPicturePage(float widthPoints, float heightPoints,
+            String pictureExtension, String name, PictureWriter pictureWriter)
+            throws IOException {
+        this.addPage(widthPoints, heightPoints, name,
+                this.writePicture(pictureExtension, pictureWriter));
+    }
+
+    /**
+     * Writes a picture to word/media and returns its id.
+     */
+    private int writePicture(String pictureExtension, PictureWriter pictureWriter)
+            throws IOException {
+        int id = this.pictureNames.size() + 1;
+        String pictureName = "image" + id + "." + pictureExtension;
+        // Pictures are compressed already, so the fastest level gains
+        // nearly as much as any other
+        this.zip.setLevel(Deflater.BEST_SPEED);
+        this.zip.putNextEntry(new ZipEntry("word/media/" + pictureName));
+        pictureWriter.write(new FilterOutputStream(this.zip) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                this.out.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                // The zip entry is closed by the document
+            }
+        });
+        this.zip.closeEntry();
+        this.pictureNames.add(pictureName);
+        return id;
+    }
+
+    /**
+     * Appends a page showing the stored picture of the given id.
+     */
+    private void addPage(float widthPoints, float heightPoints, String name,
+            int pictureId) {
+        this.startPage(widthPoints, heightPoints);
+        int id = this.pageCount;
+        long cx = Math.round(widthPoints * EMU_PER_POINT);
+        long cy = Math.round(heightPoints * EMU_PER_POINT);
+        this.startParagraph("");
+        this.body.append("<w:r><w:drawing>")
+                .append("<wp:inline distT=\"0\" distB=\"0\" distL=\"0\" distR=\"0\">")
+                .append("<wp:extent cx=\"").append(cx).append("\" cy=\"").append(cy).append("\"/>")
+                .append("<wp:docPr id=\"").append(id).append("\" name=\"Picture ").append(id).append("\"/>")
+                .append("<a:graphic><a:graphicData uri=\"http://schemas.openxmlformats.org/drawingml/2006/picture\">")
+                .append("<pic:pic><pic:nvPicPr><pic:cNvPr id=\"0\" name=\"").append(escape(name)).append("\"/>")
+                .append("<pic:cNvPicPr/></pic:nvPicPr>")
+                .append("<pic:blipFill><a:blip r:embed=\"rId").append(pictureId).append("\"/>")
+                .append("<a:stretch><a:fillRect/></a:stretch></pic:blipFill>")
+                .append("<pic:spPr><a:xfrm><a:off x=\"0\" y=\"0\"/>")
+                .append("<a:ext cx=\"").append(cx).append("\" cy=\"").append(cy).append("\"/></a:xfrm>")
+                .append("<a:prstGeom prst=\"rect\"><a:avLst/></a:prstGeom></pic:spPr>")
+                .append("</pic:pic></a:graphicData></a:graphic></wp:inline>")
+                .append("</w:drawing></w:r></w:p>");
+    }
+
+    /**
+     * Adds a page with the lines of text at their positions on the page.
+     * Each line is a paragraph indented to the start of the line and spaced
+     * from the previous line to its baseline, so the text can be searched
+     * and edited.
+     *
+     * @param widthPoints The width of the page in points
+     * @param heightPoints The height of the page in points
+     * @param lines The lines of the page from top to bottom
+     */
+    public void addTextPage(float widthPoints, float heightPoints,
+            List<PageTextExtractor.Line> lines) {
+        this.startPage(widthPoints, heightPoints);
+        if (lines.isEmpty()) {
+            this.startParagraph("");
+            this.body.append("</w:p>");
+            return;
+        }
+        // The bottom of the previous line in twips from the top of the page
+        int lineBottom = 0;
+        for (var line : lines) {
+            float fontSize = Math.max(line.getFontSize(), 1);
+            // Lines are as high as their font, with the baseline at the
+            // bottom of an exact line in Word
+            int lineHeight = Math.round(fontSize * 20);
+            int baseline = Math.round(line.baseline * 20);
+            int spaceBefore = Math.max(baseline - lineHeight - lineBottom, 0);
+            lineBottom += spaceBefore + lineHeight;
+            this.startParagraph("<w:spacing w:before=\"" + spaceBefore
+                    + "\" w:after=\"0\" w:line=\"" + lineHeight
+                    + "\" w:lineRule=\"exact\"/><w:ind w:left=\""
+                    + Math.max(Math.round(line.x * 20), 0) + "\"/>");
+            for (var run : line.runs) {
+                this.body.append("<w:r><w:rPr>");
+                if (!run.fontName.isEmpty()) {
+                    String fontName = escape(run.fontName);
+                    this.body.append("<w:rFonts w:ascii=\"").append(fontName)
+                            .append("\" w:hAnsi=\"").append(fontName)
+                            .append("\" w:cs=\"").append(fontName).append("\"/>");
+                }
+                if (run.bold) {
+                    this.body.append("<w:b/>");
+                }
+                if (run.italic) {
+                    this.body.append("<w:i/>");
+                }
+                // Font sizes are in half points
+                int halfPoints = Math.max(Math.round(run.fontSize * 2), 1);
+                this.body.append("<w:sz w:val=\"").append(halfPoints).append("\"/>")
+                        .append("</w:rPr><w:t xml:space=\"preserve\">")
+                        .append(escape(run.getText())).append("</w:t></w:r>");
+            }
+            this.body.append("</w:p>");
+        }
+    }
+
+    /**
+     * Starts a new page of the given size. A page of the same size as the
+     * previous one stays in its section and only starts a new page; a page
+     * of another size ends the section of the previous pages.
+     */
+    private void startPage(float widthPoints, float heightPoints) {
+        int id = ++this.pageCount;
+        // Converted from points to twips; 1 point = 20 twips
+        int width = Math.round(widthPoints * 20);
+        int height = Math.round(heightPoints * 20);
+        if (id > 1) {
+            if (width == this.lastPageWidth && height == this.lastPageHeight) {
+                this.pageBreakPending = true;
+            } else {
+                // The section ends with the last paragraph of its last page,
+                // and the new section starts on a new page
+                var sectionProperties = new StringBuilder();
+                this.appendSectionProperties(sectionProperties);
+                this.body.insert(this.sectionPropertiesPosition, sectionProperties);
+            }
+        }
+        this.lastPageWidth = width;
+        this.lastPageHeight = height;
+    }
+
+    /**
+     * Starts a paragraph with the given paragraph properties, which come
+     * after the page break in schema order.
+     */
+    private void startParagraph(String paragraphProperties) {
+        this.body.append("<w:p><w:pPr>");
+        if (this.pageBreakPending) {
+            this.body.append("<w:pageBreakBefore/>");
+            this.pageBreakPending = false;
+        }
+        this.body.append(paragraphProperties);
+        this.sectionPropertiesPosition = this.body.length();
+        this.body.append("</w:pPr>");
+    }
+
+    /**
+     * Appends the section properties of the last added page, with no
+     * margins. A section holds consecutive pages of the same size.
+     */
+    private void appendSectionProperties(StringBuilder xml) {
+        xml.append("<w:sectPr><w:pgSz w:w=\"").append(this.lastPageWidth)
+                .append("\" w:h=\"").append(this.lastPageHeight).append("\"/>")
+                .append("<w:pgMar w:top=\"0\" w:right=\"0\" w:bottom=\"0\" w:left=\"0\"")
+                .append(" w:header=\"0\" w:footer=\"0\" w:gutter=\"0\"/></w:sectPr>");
+    }
+
+    /**
+     * Escapes text for XML, dropping the control characters XML does not
+     * allow.
+     */
+    private static String escape(String text) {
+        var escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '&') {
+                escaped.append("&amp;");
+            } else if (c == '<') {
+                escaped.append("&lt;");
+            } else if (c == '>') {
+                escaped.append("&gt;");
+            } else if (c == '"') {
+                escaped.append("&quot;");
+            } else if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Writes a text part of the document to the zip.
+     */
+    private void writePart(String name, String content) throws IOException {
+        this.zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+        this.zip.putNextEntry(new ZipEntry(name));
+        Writer writer = new OutputStreamWriter(this.zip, StandardCharsets.UTF_8);
+        writer.write(content);
+        writer.flush();
+        this.zip.closeEntry();
+    }
+
+    /**
+     * Closes the stream. A document that has not been finished, e.g. as
+     * adding a page failed, is left as a broken zip instead of a document
+     * that looks complete but misses pages.
+     *
+     * @throws IOException Error closing the stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        // Closing the zip stream would finish the zip
+        this.out.close();
+    }
+
+    /**
+     * Writes the document body, the relationships and the content types,
+     * and closes the stream.
+     *
+     * @throws IOException Error writing the document
+     */
+    public void finish() throws IOException {
+        if (this.closed) {
+            throw new IOException("The document is already closed");
+        }
+        this.closed = true;
+        try {
+            var document = new StringBuilder(this.body.length() + 1024);
+            document.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
+                    .append("<w:document xmlns:w=\"").append(W_NS).append("\"")
+                    .append(" xmlns:r=\"").append(R_NS).append("\"")
+                    .append(" xmlns:wp=\"http://schemas.openxmlformats.org/drawingml/2006/wordprocessingDrawing\"")
+                    .append(" xmlns:a=\"http://schemas.openxmlformats.org/drawingml/2006/main\"")
+                    .append(" xmlns:pic=\"http://schemas.openxmlformats.org/drawingml/2006/picture\">")
+                    .append("<w:body>").append(this.body);
+            if (this.pageCount > 0) {
+                // The last section takes the section properties of the body
+                this.appendSectionProperties(document);
+            }
+            document.append("</w:body></w:document>");
+            this.writePart("word/document.xml", document.toString());
+
+            var relationships = new StringBuilder();
+            relationships.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
+                    .append("<Relationships xmlns=\"").append(REL_NS).append("\">");
+            for (int i = 0; i < this.pictureNames.size(); i++) {
+                relationships.append("<Relationship Id=\"rId").append(i + 1)
+                        .append("\" Type=\"").append(IMAGE_REL)
+                        .append("\" Target=\"media/").append(this.pictureNames.get(i))
+                        .append("\"/>");
+            }
+            relationships.append("</Relationships>");
+            this.writePart("word/_rels/document.xml.rels", relationships.toString());
+
+            this.writePart("_rels/.rels",
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                    + "<Relationships xmlns=\"" + REL_NS + "\">"
+                    + "<Relationship Id=\"rId1\" Type=\"" + DOCUMENT_REL
+                    + "\" Target=\"word/document.xml\"/></Relationships>");
+            this.writePart("[Content_Types].xml",
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                    + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                    + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                    + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                    + "<Default Extension=\"jpg\" ContentType=\"image/jpeg\"/>"
+                    + "<Default Extension=\"png\" ContentType=\"image/png\"/>"
+                    + "<Override PartName=\"/word/document.xml\" ContentType="
+                    + "\"application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml\"/>"
+                    + "</Types>");
+        } finally {
+            this.zip.close();
+        }
+    }
+}
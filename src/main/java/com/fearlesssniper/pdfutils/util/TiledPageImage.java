@@ -0,0 +1,224 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 fearlesssniper.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.fearlesssniper.pdfutils.util;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Vector;
+
+/**
+ * The image of a page that is rendered in horizontal strips on demand, so
+ * only one strip is held in memory however large the page is.
+ *
+ * Image writers that read the image row by row, such as the PNG writer, can
+ * write the whole page through this image. Writers that ask for all the data
+ * at once, such as the JPEG writer, would render the whole page into memory.
+ *
+ * @author fearlesssniper
+ */
+public class TiledPageImage implements RenderedImage {
+
+    private final PDDocExtra doc;
+    private final int index;
+    private final float dpi;
+    private final int width;
+    private final int height;
+    private final int stripHeight;
+    private final ColorModel colorModel;
+    private final SampleModel sampleModel;
+    // The last rendered strip, as most reads are of consecutive rows
+    private Raster currentStrip;
+    private int currentStripIndex = -1;
+
+    /**
+     * Creates the image of a page. Nothing is rendered until the data of the
+     * image is read.
+     *
+     * @param doc The document of the page; must only be used by one thread
+     * @param index The index of the page
+     * @param dpi Resolution in dpi
+     * @param stripHeight The height of each rendered strip in pixels
+     */
+    TiledPageImage(PDDocExtra doc, int index, float dpi, int stripHeight) {
+        this.doc = doc;
+        this.index = index;
+        this.dpi = dpi;
+        Dimension size = doc.getPageImageSize(index, dpi);
+        this.width = size.width;
+        this.height = size.height;
+        this.stripHeight = Math.min(stripHeight, this.height);
+        this.colorModel = new BufferedImage(1, 1, doc.getBufferedImageType())
+                .getColorModel();
+        this.sampleModel = this.colorModel.createCompatibleSampleModel(
+                this.width, this.stripHeight);
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return java.awt.Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return this.colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return this.sampleModel;
+    }
+
+    @Override
+    public int getWidth() {
+        return this.width;
+    }
+
+    @Override
+    public int getHeight() {
+        return this.height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return (this.height + this.stripHeight - 1) / this.stripHeight;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return this.width;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return this.stripHeight;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    /**
+     * Returns the strip of the given index, rendering it unless it is the
+     * last strip rendered.
+     */
+    @Override
+    public synchronized Raster getTile(int tileX, int tileY) {
+        if (tileY != this.currentStripIndex) {
+            int y = tileY * this.stripHeight;
+            int h = Math.min(this.stripHeight, this.height - y);
+            try {
+                BufferedImage strip = this.doc.renderPageRegion(
+                        this.index, this.dpi, new Rectangle(0, y, this.width, h));
+                this.currentStrip = strip.getRaster().createTranslatedChild(0, y);
+            } catch (IOException e) {
+                // RenderedImage does not allow checked exceptions
+                throw new UncheckedIOException(e);
+            }
+            this.currentStripIndex = tileY;
+        }
+        return this.currentStrip;
+    }
+
+    @Override
+    public Raster getData() {
+        return this.getData(new Rectangle(0, 0, this.width, this.height));
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        WritableRaster raster = Raster.createWritableRaster(
+                this.sampleModel.createCompatibleSampleModel(rect.width, rect.height),
+                new Point(rect.x, rect.y));
+        return this.copyData(raster);
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            raster = this.colorModel.createCompatibleWritableRaster(
+                    this.width, this.height);
+        }
+        Rectangle bounds = raster.getBounds()
+                .intersection(new Rectangle(0, 0, this.width, this.height));
+        if (bounds.isEmpty()) {
+            return raster;
+        }
+        int firstStrip = bounds.y / this.stripHeight;
+        int lastStrip = (bounds.y + bounds.height - 1) / this.stripHeight;
+        for (int i = firstStrip; i <= lastStrip; i++) {
+            raster.setRect(this.getTile(0, i));
+        }
+        return raster;
+    }
+}